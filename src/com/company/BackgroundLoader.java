@@ -0,0 +1,91 @@
+package com.company;
+
+import processing.core.PApplet;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Loads data off the animation thread and hands the results back to it.
+ *
+ * Parsing and marker construction run on background (daemon) threads, so setup() returns right
+ * away and the map is drawn while the data is still loading. Anything that touches the map, its
+ * marker managers or the renderer (adding markers, picking colors) is published as an action
+ * and run on the animation thread right before draw():
+ *      - load() runs a task in the background and passes its result to a callback;
+ *      - publish() can be called from a running task to hand over results in batches;
+ *      - actions queued for a frame are run within a small time budget, the rest waits for the
+ *      next frame, so a large batch never stalls the map.
+ */
+public class BackgroundLoader {
+    private static final long FRAME_BUDGET_NANOS = 8_000_000; // time per frame spent on published actions
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "background-loader");
+        t.setDaemon(true); // never keeps the sketch alive
+        return t;
+    });
+    private final ConcurrentLinkedQueue<Runnable> actions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    /*
+     * @param p - sketch whose animation thread runs the published actions
+     */
+    public BackgroundLoader(PApplet p) {
+        p.registerMethod("pre", this);
+    }
+
+    /*
+     * Runs a task in the background and passes its result to onLoaded on the animation thread.
+     *
+     * @param task - loads the data; must not touch the map or the renderer
+     * @param onLoaded - receives the result on the animation thread
+     */
+    public <T> void load(Callable<T> task, Consumer<T> onLoaded) {
+        running.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                T result = task.call();
+                publish(() -> onLoaded.accept(result));
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    /*
+     * Queues an action to run on the animation thread. Safe to call from any thread.
+     */
+    public void publish(Runnable action) {
+        actions.add(action);
+    }
+
+    /*
+     * @return true while a task is running or published actions are waiting
+     */
+    public boolean isLoading() {
+        return running.get() > 0 || !actions.isEmpty();
+    }
+
+    /*
+     * Runs published actions; called by Processing on the animation thread before every draw().
+     */
+    public void pre() {
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        Runnable action;
+        while ((action = actions.poll()) != null) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            if (System.nanoTime() > deadline) break;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.providers.AbstractMapProvider;
+import org.sqlite.SQLiteConfig;
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Wraps an online map provider (e.g. OpenStreetMap.OpenStreetMapProvider) with two cache tiers,
+ * so tiles are downloaded once rather than in every session:
+ *      - decoded tiles are kept in memory in a TileCache;
+ *      - downloaded tiles are stored on disk in an MBTiles (SQLite) file, keyed by zoom level,
+ *      column and row, with their download time, ETag and Last-Modified headers. The file can be
+ *      opened by OfflineTileProvider as well.
+ * A tile on disk is used as is until it expires (Cache-Control max-age, or the time to live of
+ * the cache), then revalidated with a conditional request: a 304 only renews its expiry. When the
+ * server cannot be reached, expired tiles are still shown. At most MAX_IN_FLIGHT downloads run at
+ * a time. Only the first URL a provider gives for a tile is used. Usage:
+ *      new UnfoldingMap(this, new CachingTileProvider(this, new OpenStreetMap.OpenStreetMapProvider(), MapTiles.CACHE_DIR + "osm.mbtiles"))
+ */
+public class CachingTileProvider extends AbstractMapProvider {
+    private static final long DEFAULT_TIME_TO_LIVE = 7L * 24 * 60 * 60 * 1000; // ms
+    private static final long MEMORY_BYTES = 64L << 20;
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final int TIMEOUT = 10000; // ms
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    private final AbstractMapProvider provider;
+    private final TileCache memory = new TileCache(MEMORY_BYTES);
+    private final ConcurrentHashMap<Long, CompletableFuture<PImage>> loading = new ConcurrentHashMap<>();
+    private final Semaphore downloads = new Semaphore(MAX_IN_FLIGHT);
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    // disk tier; statements are used under the lock of the connection
+    private Connection disk;
+    private PreparedStatement select;
+    private PreparedStatement insert;
+    private PreparedStatement renew;
+
+    // statistics
+    private final AtomicInteger memoryHits = new AtomicInteger();
+    private final AtomicInteger diskHits = new AtomicInteger();
+    private final AtomicInteger revalidated = new AtomicInteger();
+    private final AtomicInteger downloaded = new AtomicInteger();
+
+    /*
+     * @param p - sketch; the cache file is closed when it exits
+     * @param provider - online provider that gives tile URLs
+     * @param cacheFile - MBTiles file for the disk tier, relative to the sketch; created if missing
+     */
+    public CachingTileProvider(PApplet p, AbstractMapProvider provider, String cacheFile) {
+        super(provider.projection);
+        this.provider = provider;
+        try {
+            Class.forName("org.sqlite.JDBC");
+            File file = new File(p.sketchPath(cacheFile));
+            if (file.getParentFile() != null) file.getParentFile().mkdirs();
+            open(new SQLiteConfig().createConnection("jdbc:sqlite:" + file.getPath()));
+        } catch (ClassNotFoundException | SQLException e) {
+            System.err.println("Cannot open tile cache " + cacheFile + ": " + e.getMessage());
+        }
+        p.registerMethod("dispose", this);
+    }
+
+    /*
+     * @param millis - how long a tile is used without revalidation, if the server does not say
+     */
+    public void setTimeToLive(long millis) {
+        timeToLive = millis;
+    }
+
+    /*
+     * Called by the map's tile loader threads.
+     *
+     * @return the tile, or null if it is neither cached nor available from the server
+     */
+    @Override
+    public PImage getTile(Coordinate coordinate) {
+        int zoom = (int) coordinate.zoom;
+        int column = (int) coordinate.column;
+        int row = (int) coordinate.row;
+        long key = TileCache.key(zoom, column, row);
+        PImage tile = memory.get(key);
+        if (tile != null) {
+            memoryHits.incrementAndGet();
+            return tile;
+        }
+
+        // a tile is loaded once, other threads asking for it meanwhile wait for that load
+        CompletableFuture<PImage> load = new CompletableFuture<>();
+        CompletableFuture<PImage> pending = loading.putIfAbsent(key, load);
+        if (pending != null) return pending.join();
+        try {
+            tile = memory.get(key);
+            if (tile == null) {
+                tile = OfflineTileProvider.decode(load(coordinate, zoom, column, row));
+                if (tile != null) memory.put(key, tile);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot load tile " + zoom + "/" + column + "/" + row + ": " + e.getMessage());
+        } finally {
+            load.complete(tile);
+            loading.remove(key);
+        }
+        return tile;
+    }
+
+    /*
+     * The tile loader falls back to these URLs when getTile() returns null; tiles are only
+     * downloaded by getTile(), so there are none.
+     */
+    @Override
+    public String[] getTileUrls(Coordinate coordinate) {
+        return null;
+    }
+
+    @Override
+    public Coordinate sourceCoordinate(Coordinate coordinate) {
+        return provider.sourceCoordinate(coordinate);
+    }
+
+    @Override
+    public int tileWidth() {
+        return provider.tileWidth();
+    }
+
+    @Override
+    public int tileHeight() {
+        return provider.tileHeight();
+    }
+
+    /*
+     * Closes the cache file; called by Processing when the sketch exits.
+     */
+    public void dispose() {
+        if (disk == null) return;
+        synchronized (disk) {
+            try {
+                disk.close();
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /** getters */
+    public TileCache getMemoryCache() {
+        return memory;
+    }
+
+    public int getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public int getDiskHits() {
+        return diskHits.get();
+    }
+
+    public int getRevalidated() {
+        return revalidated.get();
+    }
+
+    public int getDownloaded() {
+        return downloaded.get();
+    }
+
+    // helper methods
+    private void open(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("CREATE TABLE IF NOT EXISTS tiles (zoom_level INTEGER, tile_column INTEGER, "
+                + "tile_row INTEGER, tile_data BLOB, fetched INTEGER, max_age INTEGER, etag TEXT, last_modified TEXT, "
+                + "PRIMARY KEY (zoom_level, tile_column, tile_row))");
+        statement.executeUpdate("CREATE TABLE IF NOT EXISTS metadata (name TEXT PRIMARY KEY, value TEXT)");
+        statement.executeUpdate("INSERT OR IGNORE INTO metadata VALUES ('name', 'tile cache')");
+        statement.close();
+        select = connection.prepareStatement("SELECT tile_data, fetched, max_age, etag, last_modified FROM tiles "
+                + "WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+        insert = connection.prepareStatement("INSERT OR REPLACE INTO tiles VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        renew = connection.prepareStatement("UPDATE tiles SET fetched = ?, max_age = ? "
+                + "WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+        disk = connection;
+    }
+
+    private byte[] load(Coordinate coordinate, int zoom, int column, int row) throws IOException {
+        int tmsRow = (1 << zoom) - 1 - row; // MBTiles rows count from the south
+        CachedTile cached = read(zoom, column, tmsRow);
+        if (cached != null && cached.isFresh()) {
+            diskHits.incrementAndGet();
+            return cached.data;
+        }
+
+        String[] urls = provider.getTileUrls(coordinate);
+        if (urls == null || urls.length == 0) return cached == null ? null : cached.data;
+        try {
+            Response response = download(urls[0], cached);
+            if (response.data == null) {
+                // not modified: the cached tile stays valid for another while
+                revalidated.incrementAndGet();
+                renew(zoom, column, tmsRow, response.maxAge);
+                return cached.data;
+            }
+            downloaded.incrementAndGet();
+            write(zoom, column, tmsRow, response);
+            return response.data;
+        } catch (IOException e) {
+            if (cached == null) throw e;
+            return cached.data; // server unreachable: an expired tile beats no tile
+        }
+    }
+
+    private Response download(String url, CachedTile cached) throws IOException {
+        downloads.acquireUninterruptibly();
+        try {
+            HttpURLConnection http = (HttpURLConnection) new URL(url).openConnection();
+            http.setConnectTimeout(TIMEOUT);
+            http.setReadTimeout(TIMEOUT);
+            if (cached != null && cached.etag != null) {
+                http.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached != null && cached.lastModified != null) {
+                http.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+            int status = http.getResponseCode();
+            Response response = new Response();
+            response.maxAge = maxAge(http.getHeaderField("Cache-Control"));
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                http.disconnect();
+                return response;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            response.data = readAll(http.getInputStream());
+            response.etag = http.getHeaderField("ETag");
+            response.lastModified = http.getHeaderField("Last-Modified");
+            return response;
+        } finally {
+            downloads.release();
+        }
+    }
+
+    /*
+     * @return max-age of a Cache-Control header in ms, or -1 if there is none
+     */
+    private static long maxAge(String cacheControl) {
+        if (cacheControl == null) return -1;
+        Matcher maxAge = MAX_AGE.matcher(cacheControl);
+        return maxAge.find() ? Long.parseLong(maxAge.group(1)) * 1000 : -1;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+        byte[] buffer = new byte[8192];
+        int n;
+        try {
+            while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private CachedTile read(int zoom, int column, int tmsRow) {
+        if (disk == null) return null;
+        synchronized (disk) {
+            try {
+                select.setInt(1, zoom);
+                select.setInt(2, column);
+                select.setInt(3, tmsRow);
+                ResultSet result = select.executeQuery();
+                CachedTile cached = null;
+                if (result.next()) {
+                    cached = new CachedTile();
+                    cached.data = result.getBytes(1);
+                    cached.fetched = result.getLong(2);
+                    cached.maxAge = result.getLong(3);
+                    cached.etag = result.getString(4);
+                    cached.lastModified = result.getString(5);
+                }
+                result.close();
+                return cached;
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private void write(int zoom, int column, int tmsRow, Response response) {
+        if (disk == null) return;
+        synchronized (disk) {
+            try {
+                insert.setInt(1, zoom);
+                insert.setInt(2, column);
+                insert.setInt(3, tmsRow);
+                insert.setBytes(4, response.data);
+                insert.setLong(5, System.currentTimeMillis());
+                insert.setLong(6, response.maxAge);
+                insert.setString(7, response.etag);
+                insert.setString(8, response.lastModified);
+                insert.executeUpdate();
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    private void renew(int zoom, int column, int tmsRow, long maxAge) {
+        if (disk == null) return;
+        synchronized (disk) {
+            try {
+                renew.setLong(1, System.currentTimeMillis());
+                renew.setLong(2, maxAge);
+                renew.setInt(3, zoom);
+                renew.setInt(4, column);
+                renew.setInt(5, tmsRow);
+                renew.executeUpdate();
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * A tile row of the disk tier.
+     */
+    private class CachedTile {
+        byte[] data;
+        long fetched;
+        long maxAge; // -1 uses the time to live of the cache
+        String etag;
+        String lastModified;
+
+        boolean isFresh() {
+            return System.currentTimeMillis() - fetched < (maxAge >= 0 ? maxAge : timeToLive);
+        }
+    }
+
+    /*
+     * A downloaded tile; data is null when the server answered 304 Not Modified.
+     */
+    private static class Response {
+        byte[] data;
+        long maxAge;
+        String etag;
+        String lastModified;
+    }
+}
@@ -0,0 +1,155 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import parsing.CountryIndex;
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * Map layer that fills the countries of a CountryIndex with one color each (a choropleth).
+ *
+ * Countries are drawn into an offscreen image with the geometry simplified for the map's zoom
+ * level, and only polygons on screen are drawn. The image is redrawn when the map is panned or
+ * zoomed, or the colors change; otherwise a frame only copies the image, whatever the number of
+ * vertices of the countries. A highlighted country is outlined on top.
+ *
+ * It is added to a map like any MarkerManager, but holds no markers.
+ */
+public class ChoroplethLayer extends MarkerManager<Marker> {
+    private final PApplet p;
+    private final CountryIndex countries;
+    private int[] colors; // fill color per country
+    private int borderColor = 0xFF505050;
+    private int highlightColor = 0xFFFFFFFF;
+    private int highlighted = -1;
+
+    private PGraphics buffer;
+    private boolean dirty = true;
+    private float drawnZoom;
+    private float drawnX; // projection origin when the buffer was drawn
+    private float drawnY;
+    private final MapProjection projection = new MapProjection(); // of the current frame
+
+    public ChoroplethLayer(PApplet p, CountryIndex countries) {
+        this.p = p;
+        this.countries = countries;
+    }
+
+    /*
+     * @param colors - fill color of each country, by country index of the CountryIndex
+     */
+    public void setColors(int[] colors) {
+        this.colors = colors;
+        invalidate();
+    }
+
+    public void setBorderColor(int color) {
+        borderColor = color;
+        invalidate();
+    }
+
+    /*
+     * Outlines a country; -1 outlines none.
+     */
+    public void setHighlighted(int country, int color) {
+        highlighted = country;
+        highlightColor = color;
+    }
+
+    public int getHighlighted() {
+        return highlighted;
+    }
+
+    /*
+     * Forces the image to be redrawn on the next draw.
+     */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    @Override
+    public void draw() {
+        if (!bEnableDrawing || map == null || colors == null) return;
+
+        PGraphics pg = map.mapDisplay.getOuterPG();
+        projection.update(map);
+        if (buffer == null || buffer.width != pg.width || buffer.height != pg.height) {
+            buffer = p.createGraphics(pg.width, pg.height, PConstants.P2D);
+            dirty = true;
+        }
+        if (dirty || map.getZoom() != drawnZoom || projection.getOriginX() != drawnX || projection.getOriginY() != drawnY) {
+            redraw();
+        }
+        pg.image(buffer, 0, 0);
+
+        if (highlighted >= 0) {
+            pg.noFill();
+            pg.stroke(highlightColor);
+            pg.strokeWeight(2);
+            drawCountry(pg, highlighted, countries.getGeometry(map.getZoomLevel()));
+            pg.strokeWeight(1);
+        }
+    }
+
+    // helper methods
+    private void redraw() {
+        dirty = false;
+        drawnZoom = map.getZoom();
+        drawnX = projection.getOriginX();
+        drawnY = projection.getOriginY();
+
+        // visible area in Mercator coordinates
+        float minX = projection.getMercatorX(0);
+        float maxX = projection.getMercatorX(buffer.width);
+        float minY = projection.getMercatorY(buffer.height); // y is flipped when north is up
+        float maxY = projection.getMercatorY(0);
+        if (minY > maxY) {
+            float swap = minY;
+            minY = maxY;
+            maxY = swap;
+        }
+
+        CountryIndex.Geometry geometry = countries.getGeometry(map.getZoomLevel());
+        buffer.beginDraw();
+        buffer.clear();
+        buffer.stroke(borderColor);
+        buffer.strokeWeight(1);
+        for (int polygon = 0; polygon < countries.getPolygonCount(); polygon++) {
+            if (!countries.overlaps(polygon, minX, minY, maxX, maxY)) continue;
+            buffer.fill(colors[countries.getPolygonCountry(polygon)]);
+            drawPolygon(buffer, polygon, geometry);
+        }
+        buffer.endDraw();
+    }
+
+    private void drawCountry(PGraphics pg, int country, CountryIndex.Geometry geometry) {
+        for (int polygon = 0; polygon < countries.getPolygonCount(); polygon++) {
+            if (countries.getPolygonCountry(polygon) == country) {
+                drawPolygon(pg, polygon, geometry);
+            }
+        }
+    }
+
+    private void drawPolygon(PGraphics pg, int polygon, CountryIndex.Geometry geometry) {
+        // exterior ring, then holes as contours; rings simplified away are skipped
+        int exterior = countries.getRingStart(polygon);
+        if (geometry.getEnd(exterior) - geometry.getStart(exterior) < 3) return;
+        pg.beginShape();
+        vertices(pg, geometry, exterior);
+        for (int ring = exterior + 1; ring < countries.getRingEnd(polygon); ring++) {
+            if (geometry.getEnd(ring) - geometry.getStart(ring) < 3) continue;
+            pg.beginContour();
+            vertices(pg, geometry, ring);
+            pg.endContour();
+        }
+        pg.endShape(PConstants.CLOSE);
+    }
+
+    private void vertices(PGraphics pg, CountryIndex.Geometry geometry, int ring) {
+        for (int i = geometry.getStart(ring); i < geometry.getEnd(ring); i++) {
+            pg.vertex(projection.getX(geometry.getX(i)), projection.getY(geometry.getY(i)));
+        }
+    }
+}
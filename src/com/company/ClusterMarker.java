@@ -0,0 +1,67 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * Bubble standing for a cluster of point markers at the current zoom level.
+ * Its size grows with the number of points and its label shows that number.
+ */
+public class ClusterMarker extends CommonMarker {
+    private final int count;
+    private final String title;
+
+    // constructor
+    public ClusterMarker(Location location, int count, int color, String title) {
+        super(location);
+        this.count = count;
+        this.color = color;
+        this.title = title;
+        setRadius(getBubbleSize() / 2); // hit-test the whole bubble
+    }
+
+    public ClusterMarker(Location location, int count, int nKilled, int nInjured, int color) {
+        this(location, count, color, count + " incidents\n\n# People killed: " + nKilled
+                + "\n\n# People injured: " + nInjured);
+        this.nKilled = nKilled;
+        this.nInjured = nInjured;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    @Override
+    public String getTitle() {
+        return count + " incidents";
+    }
+
+    @Override
+    public String printTitle() {
+        return title;
+    }
+
+    @Override
+    public void drawMarker(PGraphics pg, float x, float y) {
+        float size = getBubbleSize();
+        pg.pushStyle();
+        pg.noStroke();
+        pg.fill(color, 100);
+        pg.ellipse(x, y, size + 10, size + 10);
+        pg.fill(color);
+        pg.ellipse(x, y, size, size);
+
+        // display the number of points in the cluster
+        pg.fill(10);
+        pg.textAlign(PConstants.CENTER, PConstants.CENTER);
+        pg.text(count, x, y);
+        pg.popStyle();
+    }
+
+    // helper methods
+    private float getBubbleSize() {
+        // grows with log2 of the number of points
+        return 16 + 4 * (float) (Math.log(count) / Math.log(2));
+    }
+}
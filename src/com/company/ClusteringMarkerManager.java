@@ -0,0 +1,127 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import parsing.ClusterIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Viewport-culling MarkerManager that clusters its point markers by zoom level.
+ *
+ * Clusters are precomputed for every zoom level in a ClusterIndex. When the map's zoom level
+ * changes, the manager swaps in the marker list of that level: single points keep their own
+ * marker and groups are drawn as one cluster marker created by a ClusterMarkerFactory. Lists
+ * are built on first use and cached, so zooming back and forth is constant-time.
+ */
+public class ClusteringMarkerManager extends CullingMarkerManager {
+    /*
+     * Creates the marker drawn for a cluster of more than one point.
+     */
+    public interface ClusterMarkerFactory {
+        Marker create(ClusterIndex index, int zoom, int cluster);
+    }
+
+    private List<Marker> points;
+    private ClusterIndex index;
+    private final ClusterMarkerFactory factory;
+    private final int minZoom;
+    private final int maxZoom;
+    private final float radius;
+    private final HashMap<Integer, List<Marker>> markersByZoom = new HashMap<>();
+    private int shownZoom = Integer.MIN_VALUE;
+
+    /*
+     * @param points - point markers to cluster
+     * @param values - values[channel][point] aggregated per cluster (see ClusterIndex)
+     * @param minZoom, maxZoom - zoom levels to cluster at; points are shown unclustered above maxZoom
+     * @param radius - cluster radius in pixels
+     * @param factory - creates cluster markers
+     */
+    public ClusteringMarkerManager(List<Marker> points, float[][] values, int minZoom, int maxZoom, float radius,
+                                   ClusterMarkerFactory factory) {
+        super(points);
+        this.factory = factory;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.radius = radius;
+        setPoints(points, values);
+    }
+
+    /*
+     * Replaces the point markers, e.g. after a feed refresh added, moved or removed some of them.
+     * Markers that are kept can be passed again as they are; clusters are recomputed and the
+     * markers of the current zoom level are swapped in on the next draw.
+     *
+     * @param points - point markers to cluster
+     * @param values - values[channel][point] aggregated per cluster (see ClusterIndex)
+     */
+    public void setPoints(List<Marker> points, float[][] values) {
+        setPoints(points, cluster(points, values));
+    }
+
+    /*
+     * Like setPoints(List, float[][]), with clusters computed beforehand by cluster().
+     */
+    public void setPoints(List<Marker> points, ClusterIndex index) {
+        this.index = index;
+        this.points = points;
+        markersByZoom.clear();
+        shownZoom = Integer.MIN_VALUE;
+    }
+
+    /*
+     * Clusters point markers with the settings of this manager, without changing it; safe to call
+     * on a background thread as long as the markers are not moved meanwhile.
+     *
+     * @return index to pass to setPoints(List, ClusterIndex)
+     */
+    public ClusterIndex cluster(List<Marker> points, float[][] values) {
+        double[] lat = new double[points.size()];
+        double[] lon = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            Location loc = points.get(i).getLocation();
+            lat[i] = loc.getLat();
+            lon[i] = loc.getLon();
+        }
+        return new ClusterIndex(lat, lon, values, minZoom, maxZoom, radius);
+    }
+
+    public ClusterIndex getClusterIndex() {
+        return index;
+    }
+
+    /*
+     * Swaps in the markers of the map's current zoom level if it changed.
+     */
+    public void update() {
+        if (map == null) return;
+        int zoom = index.clampZoom(map.getZoomLevel());
+        if (zoom != shownZoom) {
+            setMarkers(getMarkersAtZoom(zoom));
+            shownZoom = zoom;
+        }
+    }
+
+    public List<Marker> getMarkersAtZoom(int zoom) {
+        zoom = index.clampZoom(zoom);
+        List<Marker> markers = markersByZoom.get(zoom);
+        if (markers == null) {
+            markers = new ArrayList<>(index.getClusterCount(zoom));
+            for (int c = 0; c < index.getClusterCount(zoom); c++) {
+                int point = index.getPoint(zoom, c);
+                markers.add(point >= 0 ? points.get(point) : factory.create(index, zoom, c));
+            }
+            markersByZoom.put(zoom, markers);
+        }
+        return markers;
+    }
+
+    @Override
+    public void draw() {
+        update();
+        super.draw();
+    }
+}
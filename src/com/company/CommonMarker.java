@@ -25,9 +25,6 @@ public abstract class CommonMarker extends SimplePointMarker {
     public void draw(PGraphics pg, float x, float y) {
         if (!hidden) {
             drawMarker(pg, x, y);
-            if (selected) {
-                printTitle();
-            }
         }
     }
 
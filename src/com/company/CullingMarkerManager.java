@@ -0,0 +1,117 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.marker.AbstractMarker;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MarkerManager that only draws the markers inside the map's viewport.
+ *
+ * Each frame, hidden markers and markers projected outside the viewport (plus a margin for
+ * their icons) are skipped. When more markers than the level-of-detail threshold are visible,
+ * they are drawn as one batch of dots instead of their full representation, so frame time
+ * depends on what is on screen rather than on the size of the dataset.
+ */
+public class CullingMarkerManager extends MarkerManager<Marker> {
+    private float margin = 40; // pixels around the viewport in which markers are still drawn
+    private int lodThreshold = 500; // visible markers above which dots are drawn
+    private int lodColor = 0xFFB22222;
+    private float lodWeight = 4;
+
+    // visible markers of the current frame (reused between frames)
+    private Marker[] visible = new Marker[64];
+    private float[] visibleX = new float[64];
+    private float[] visibleY = new float[64];
+    private int visibleCount;
+
+    // constructors
+    public CullingMarkerManager() {
+        super();
+    }
+
+    public CullingMarkerManager(List<Marker> markers) {
+        super(markers);
+    }
+
+    /** settings */
+    public void setMargin(float margin) {
+        this.margin = margin;
+    }
+
+    public void setLodThreshold(int lodThreshold) {
+        this.lodThreshold = lodThreshold;
+    }
+
+    public void setLodStyle(int color, float weight) {
+        this.lodColor = color;
+        this.lodWeight = weight;
+    }
+
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    @Override
+    public void draw() {
+        if (!bEnableDrawing || map == null) return;
+
+        PGraphics pg = map.mapDisplay.getOuterPG();
+        cull();
+
+        if (visibleCount <= lodThreshold) {
+            for (int i = 0; i < visibleCount; i++) {
+                Marker m = visible[i];
+                if (m instanceof AbstractMarker) {
+                    ((AbstractMarker) m).draw(pg, visibleX[i], visibleY[i]); // already projected
+                } else {
+                    m.draw(map);
+                }
+            }
+        } else {
+            // level of detail: one dot per marker, drawn as a single shape
+            pg.pushStyle();
+            pg.stroke(lodColor);
+            pg.strokeWeight(lodWeight);
+            pg.beginShape(PConstants.POINTS);
+            for (int i = 0; i < visibleCount; i++) {
+                pg.vertex(visibleX[i], visibleY[i]);
+            }
+            pg.endShape();
+            pg.popStyle();
+        }
+    }
+
+    // helper methods
+    private void cull() {
+        float minX = -margin;
+        float minY = -margin;
+        float maxX = map.getWidth() + margin;
+        float maxY = map.getHeight() + margin;
+
+        visibleCount = 0;
+        for (Marker m : markers) {
+            if (m.isHidden()) continue;
+            float[] xy = map.mapDisplay.getObjectFromLocation(m.getLocation());
+            if (xy[0] < minX || xy[0] > maxX || xy[1] < minY || xy[1] > maxY) continue;
+            if (visibleCount == visible.length) {
+                grow();
+            }
+            visible[visibleCount] = m;
+            visibleX[visibleCount] = xy[0];
+            visibleY[visibleCount] = xy[1];
+            visibleCount++;
+        }
+    }
+
+    private void grow() {
+        int n = visible.length * 2;
+        visible = Arrays.copyOf(visible, n);
+        visibleX = Arrays.copyOf(visibleX, n);
+        visibleY = Arrays.copyOf(visibleY, n);
+    }
+}
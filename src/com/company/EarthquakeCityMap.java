@@ -4,11 +4,10 @@ import de.fhpotsdam.unfolding.UnfoldingMap;
 import de.fhpotsdam.unfolding.geo.Location;
 import de.fhpotsdam.unfolding.marker.Marker;
 import de.fhpotsdam.unfolding.marker.SimplePointMarker;
-import de.fhpotsdam.unfolding.providers.Google;
 import de.fhpotsdam.unfolding.providers.OpenStreetMap;
 import de.fhpotsdam.unfolding.utils.MapUtils;
 import de.fhpotsdam.unfolding.data.PointFeature;
-import parsing.ParseFeed;
+import parsing.EarthquakeFeed;
 import processing.core.PApplet;
 
 import java.util.*;
@@ -22,65 +21,212 @@ import java.util.List;
  *      - Displays separate markers for earthquakes in land versus in the ocean;
  *      - Size of the marker is proportional to the magnitude of the earthquake;
  *      - Earthquakes within the past day are indicated with a cross;
+ *      - Nearby earthquakes are grouped into cluster bubbles (colored by their largest magnitude)
+ *      that split up as you zoom in;
+ *      - The feed is polled every few minutes; only new, updated and expired earthquakes are changed;
+ *      - Online mode ("online" argument) shows OpenStreetMap tiles, cached by CachingTileProvider;
  */
 public class EarthquakeCityMap extends PApplet {
     private UnfoldingMap map;
+    private BackgroundLoader loader;
+    private EarthquakeFeed feed;
+    private LinkedHashMap<String, SimplePointMarker> markersById = new LinkedHashMap<>(); // by feed entry id
+    private ClusteringMarkerManager manager;
+    private CullingMarkerManager firstPollManager; // unclustered markers, shown while the first poll is read
+    private int lastPoll;
+    private boolean feedLoaded; // true once a poll succeeded
+
+    // marker colors, picked on the animation thread (the renderer's color() is not thread-safe)
+    private int moderateColor;
+    private int lightColor;
+    private int minorColor;
 
     // feed with magnitude 2.5+ Earthquakes
     String earthquakesURL = "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_week.atom";
+    int REFRESH_INTERVAL = 5 * 60 * 1000; // ms between feed polls
+    int MARKER_CHUNK = 250; // earthquakes shown per published batch while the first feed is read
+    boolean ONLINE_TILES = false; // a world view at zoom 2 is covered by the bundled tiles
 
 
     public static void main(String[] args) {
         System.setProperty("http.agent", "Chrome");
-        PApplet.main("com.company.EarthquakeCityMap");
+        PApplet.main("com.company.EarthquakeCityMap", args);
     }
 
     public void setup() {
         // set up canvas
         size(850, 600, OPENGL);
 
-        // set up map;
-        map = new UnfoldingMap(this, 200, 50, 600, 500, new OpenStreetMap.OpenStreetMapProvider());
+        // set up map next to the legend
+        map = MapTiles.createMap(this, 200, 50, 600, 500, ONLINE_TILES,
+                "data/blankLight-1-3.mbtiles", new OpenStreetMap.OpenStreetMapProvider());
         map.zoomToLevel(2);
         MapUtils.createDefaultEventDispatcher(this, map); // make map interactive
 
-        // read in earthquake data
-        List<PointFeature> earthquakes = ParseFeed.parseEarthquake(this, earthquakesURL);
+        moderateColor = color(255,0,0);
+        lightColor = color(255,255,0);
+        minorColor = color(0,0,255);
+
+        // read in earthquake data in the background, so the map is drawn while the feed is
+        // downloading; markers are added in chunks as the feed is read and the feed is polled for changes
+        loader = new BackgroundLoader(this);
+        feed = new EarthquakeFeed(this, earthquakesURL);
+        pollFeed();
+    }
+
+    private void pollFeed() {
+        /*
+        Polls the feed in the background. On the first poll, markers are built in chunks while the
+        feed is parsed and each chunk is shown unclustered as soon as it is published; they are
+        clustered once the whole feed is read.
+         */
+        lastPoll = millis();
+        loader.load(() -> feed.poll(MARKER_CHUNK, features -> {
+            List<SimplePointMarker> markers = new ArrayList<>(features.size());
+            for (PointFeature feature : features) {
+                markers.add(createMarker(feature));
+            }
+            loader.publish(() -> addMarkers(markers));
+        }), this::applyDelta);
+    }
 
-        // create a list of markers corresponding to the list of earthquakes
-        List<Marker> markers = createMarkers(earthquakes);
-        map.addMarkers(markers);
+    private void addMarkers(List<SimplePointMarker> markers) {
+        if (firstPollManager == null) {
+            firstPollManager = new CullingMarkerManager();
+            map.addMarkerManager(firstPollManager);
+        }
+        List<Marker> added = new ArrayList<>(markers.size());
+        for (SimplePointMarker marker : markers) {
+            SimplePointMarker previous = markersById.put(marker.getId(), marker);
+            if (previous != null) firstPollManager.removeMarker(previous); // read again after a failed poll
+            added.add(marker);
+        }
+        firstPollManager.addMarkers(added);
     }
 
-    private List<Marker> createMarkers(List<PointFeature> features) {
+    private void applyDelta(EarthquakeFeed.Delta delta) {
         /*
-        Creates a list of markers (SimplePointMarker objects) from a list of PointFeature,
-        then style each marker according the magnitude of each earthquake event:
+        Adds, updates and removes only the markers of earthquakes that changed since the last poll;
+        clusters are only recomputed if earthquakes were added or removed, moved or changed magnitude.
+         */
+        if (delta == null) return; // feed did not change
+        boolean recluster = false;
+        if (!feedLoaded) {
+            // drop markers published while an earlier first poll was read that then failed to parse
+            Set<String> ids = new HashSet<>();
+            for (PointFeature feature : delta.getAdded()) {
+                ids.add(feature.getId());
+            }
+            markersById.keySet().retainAll(ids);
+            feedLoaded = true;
+            recluster = true; // markers of the first poll are not clustered yet
+        }
+        for (String id : delta.getRemoved()) {
+            recluster |= markersById.remove(id) != null;
+        }
+        for (PointFeature feature : delta.getChanged()) {
+            SimplePointMarker marker = markersById.get(feature.getId());
+            if (marker != null) {
+                Location location = feature.getLocation();
+                recluster |= marker.getLocation().getLat() != location.getLat()
+                        || marker.getLocation().getLon() != location.getLon()
+                        || !Objects.equals(marker.getProperty("magnitude"), feature.getProperty("magnitude"));
+                marker.setLocation(location);
+                marker.setProperties(feature.getProperties());
+                styleMarker(marker);
+            } else {
+                markersById.put(feature.getId(), createMarker(feature));
+                recluster = true;
+            }
+        }
+        for (PointFeature feature : delta.getAdded()) {
+            if (!markersById.containsKey(feature.getId())) { // not already added while the feed was read
+                markersById.put(feature.getId(), createMarker(feature));
+                recluster = true;
+            }
+        }
+        if (recluster) updateClusters();
+    }
+
+    private void updateClusters() {
+        /*
+        Recomputes the clusters over the current markers in the background and then swaps them in;
+        until then the previous clusters (or the unclustered markers of the first poll) are shown.
+         */
+        if (manager == null) {
+            manager = createClusteringManager(new ArrayList<>());
+            map.addMarkerManager(manager);
+        }
+        List<Marker> markers = new ArrayList<>(markersById.values());
+        float[][] magnitudes = getMagnitudes(markers);
+        loader.load(() -> manager.cluster(markers, magnitudes), index -> {
+            manager.setPoints(markers, index);
+            if (firstPollManager != null) {
+                map.removeMarkerManager(firstPollManager); // clustered from now on
+                firstPollManager = null;
+            }
+        });
+    }
+
+    private float[][] getMagnitudes(List<Marker> markers) {
+        float[][] magnitudes = new float[1][markers.size()];
+        for (int i = 0; i < markers.size(); i++) {
+            magnitudes[0][i] = Float.parseFloat(markers.get(i).getProperty("magnitude").toString());
+        }
+        return magnitudes;
+    }
+
+    private ClusteringMarkerManager createClusteringManager(List<Marker> markers) {
+        /*
+        Clusters earthquake markers by zoom level; cluster bubbles show the number of
+        earthquakes and are colored like the strongest earthquake they contain.
+         */
+        return new ClusteringMarkerManager(markers, getMagnitudes(markers), 0, 8, 40, (index, zoom, c) -> {
+            float maxMagnitude = index.getMax(zoom, c, 0);
+            int count = index.getPointCount(zoom, c);
+            return new ClusterMarker(new Location(index.getLatitude(zoom, c), index.getLongitude(zoom, c)),
+                    count, magnitudeColor(maxMagnitude),
+                    count + " earthquakes\n\nMax magnitude: " + maxMagnitude);
+        });
+    }
+
+    private int magnitudeColor(double magnitude) {
+        // same color coding as the single earthquake markers
+        if (magnitude > 5.) {
+            return moderateColor;
+        } else if (magnitude > 4.) {
+            return lightColor;
+        }
+        return minorColor;
+    }
+
+    private SimplePointMarker createMarker(PointFeature feature) {
+        SimplePointMarker marker = new SimplePointMarker(feature.getLocation(), feature.getProperties());
+        marker.setId(feature.getId());
+        styleMarker(marker);
+        return marker;
+    }
+
+    private void styleMarker(SimplePointMarker marker) {
+        /*
+        Styles a marker (SimplePointMarker object) according the magnitude of its earthquake event:
             Magnitude 5.0+ -> moderate -> big red dots
             Magnitude 4.0+ -> light -> medium yellow dots
             Magnitude <4.0 -> minor -> small blue dots
          */
         double THRESHOLD_MODERATE = 5.;
         double THRESHOLD_LIGHT = 4.;
-        List<Marker> markers = new ArrayList<>();
-        for (PointFeature feature : features) {
-            System.out.println(feature.properties); // print all properties of PointFeature
-            Location loc = feature.getLocation();
-            SimplePointMarker marker = new SimplePointMarker(loc, feature.properties);
-            double magnitude = Double.parseDouble(marker.getProperty("magnitude").toString());
-            if (magnitude > THRESHOLD_MODERATE) {
-                marker.setRadius(15);
-                marker.setColor(color(255,0,0));
-            } else if (magnitude > THRESHOLD_LIGHT && magnitude < THRESHOLD_MODERATE) {
-                marker.setRadius(10);
-                marker.setColor(color(255,255,0));
-            } else {
-                marker.setRadius(5);
-                marker.setColor(color(0,0,255));
-            }
-            markers.add(marker);
+        double magnitude = Double.parseDouble(marker.getProperty("magnitude").toString());
+        if (magnitude > THRESHOLD_MODERATE) {
+            marker.setRadius(15);
+            marker.setColor(moderateColor);
+        } else if (magnitude > THRESHOLD_LIGHT && magnitude < THRESHOLD_MODERATE) {
+            marker.setRadius(10);
+            marker.setColor(lightColor);
+        } else {
+            marker.setRadius(5);
+            marker.setColor(minorColor);
         }
-        return markers;
     }
 
     private void addLegend() {
@@ -111,5 +257,14 @@ public class EarthquakeCityMap extends PApplet {
         background(200);
         map.draw();
         addLegend();
+        if (manager == null && firstPollManager == null && loader.isLoading()) {
+            fill(0);
+            text("Loading earthquakes...", 20, 250);
+        }
+
+        // poll the feed for new, updated and expired earthquakes
+        if (millis() - lastPoll > REFRESH_INTERVAL && !loader.isLoading()) {
+            pollFeed();
+        }
     }
 }
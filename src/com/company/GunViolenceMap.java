@@ -3,17 +3,21 @@ package com.company;
 
 import de.fhpotsdam.unfolding.UnfoldingMap;
 import de.fhpotsdam.unfolding.data.Feature;
-import de.fhpotsdam.unfolding.data.GeoJSONReader;
 import de.fhpotsdam.unfolding.data.PointFeature;
 import de.fhpotsdam.unfolding.geo.Location;
 import de.fhpotsdam.unfolding.marker.Marker;
 import de.fhpotsdam.unfolding.providers.Google;
-import de.fhpotsdam.unfolding.providers.OpenStreetMap;
 import de.fhpotsdam.unfolding.utils.MapUtils;
-import parsing.ParseFeed;
+import parsing.CompressedBitmap;
+import parsing.IncidentBitmapIndex;
+import parsing.IncidentSnapshot;
+import parsing.IncidentStats;
+import parsing.IncidentTable;
+import parsing.IncidentTimeline;
 import processing.core.PApplet;
 import processing.core.PConstants;
 
+import java.time.LocalDate;
 import java.util.*;
 import java.util.List;
 
@@ -30,7 +34,7 @@ import java.util.List;
  *              Red if number of shooting > 30
  *              Yellow is anything in between
  *      - When a state is clicked, the state marker disappears and incident markers belonging to that
- *      state appear;
+ *      state appear (nearby incidents are grouped into cluster bubbles until you zoom in);
  *      - When the mouse hoovers over a state/incident, information about the gun violence incident(s)
  *      will be displayed on the right hand side of the map including:
  *          + State name (if it is a state marker)
@@ -39,69 +43,141 @@ import java.util.List;
  *          + Number of shootings (if it is a state marker)
  *          + Number of people killed
  *          + Number of people injured
+ *      - The slider above the year boxes narrows the state counts to any date range in the data
+ *      (drag a handle, or the bar to shift the range); "Play" moves the range through time.
+ *      Picking a year resets the range to that year; drill-down always shows that year's incidents;
+ *      - The "Heatmap" box overlays the density of incidents in the selected year, weighted by the
+ *      number of people killed and injured;
+ *      - The "Killed" and "Injured" boxes cycle through minimum numbers of people killed/injured;
+ *      only the incidents (and clusters) of the drilled-down state that meet both are shown.
  */
 
 public class GunViolenceMap extends PApplet {
     private UnfoldingMap map;
     private String selectedYear = "2020"; // default value
     private List<Marker> stateCapitalMarkers;
-    private List<Marker> incidentMarkers;
     private Marker lastSelectedMarker;
     private Marker currClick;
     private Marker lastClick;
     private List<Feature> stateCapitals;
-    private List<PointFeature> gunIncidents;
-    private HashMap<String,HashMap<String,ArrayList<Integer>>> statByYearByState;
+    private IncidentTable gunIncidents;
+    private IncidentStats statByYearByState;
+    private IncidentBitmapIndex incidentIndex; // incident rows by year, state, county, month, killed and injured
+    private int minKilled; // incident filter, one of MIN_COUNT_STEPS
+    private int minInjured;
+    private IncidentTimeline timeline; // running totals per state by day, for date ranges
+    private RangeSlider rangeSlider;
+    private String rangeText = "";
+    private boolean playing;
+    private HashMap<String, YearMarkers> markersByYear = new HashMap<>(); // marker sets built so far, by year
+    private HashSet<String> yearsLoading = new HashSet<>(); // marker sets being built in the background
+    private BackgroundLoader loader;
+    private HeatmapLayer heatmap;
+    private boolean showHeatmap;
+    private YearMarkers shownYearMarkers;
+    private int shownState = -1; // state code of the drilled-down state, -1 if none
+    private ClusteringMarkerManager shownIncidentManager; // incidents of the drilled-down state on the map, if any
+    private MarkerIndex shownIncidentIndex;
+    private Marker infoMarker; // marker whose info is cached in infoText
+    private char[] infoText = new char[256];
+    private int infoLength;
 
     // for debugging purposes
 //    private String gunViolenceFile = "data/mass_shooting_test.csv";
 
     // CONSTANTS
     int BUTTON_SIZE = 12;
+    String INCIDENT_ICON = "data/marker8.png";
+    int CLUSTER_MIN_ZOOM = 2;
+    int CLUSTER_MAX_ZOOM = 12; // incidents are shown individually above this zoom level
+    float CLUSTER_RADIUS = 40;
+    int PLAY_DAYS_PER_FRAME = 2;
+    int MARKER_CHUNK = 250; // incident markers handed to the map per published batch
+    int[] MIN_COUNT_STEPS = {0, 1, 2, 5, 10}; // filter steps; bounds of IncidentBitmapIndex.COUNT_BUCKETS
+    boolean ONLINE_TILES = true; // the map opens at zoom 4 and drills into states, past the bundled tiles
 
     public static void main(String[] args) {
         System.setProperty("http.agent", "Chrome");
-        PApplet.main("com.company.GunViolenceMap");
+        PApplet.main("com.company.GunViolenceMap", args);
     }
 
     public void setup() {
         // set up canvas
         size(1000, 700, OPENGL);
 
-        // set up map
-        map = new UnfoldingMap(this, 50, 50, 700, 600, new Google.GoogleMapProvider());
+        // set up map with Google tiles, or the bundled light tiles with the "offline" argument
+        map = MapTiles.createMap(this, 50, 50, 700, 600, ONLINE_TILES,
+                "data/blankLight-1-3.mbtiles", new Google.GoogleMapProvider());
         map.zoomAndPanTo(4, new Location(31.79, -100.09)); // centered on USA
         MapUtils.createDefaultEventDispatcher(this, map); // make map interactive
 
-        // read in gun violence data (from CSV)
+        // read in gun violence data (from CSV) and state capitals (from GeoJSON),
+        // or from their binary snapshot if neither file changed since the last launch;
+        // loading runs in the background so the map is drawn right away
         String gunViolenceFile = "data/mass_shooting_03-2018_03-2021_with_geodata.csv";
-        gunIncidents = ParseFeed.readGunViolenceDataFromCSV(this, gunViolenceFile);
-        statByYearByState = createStatByYearByState(gunIncidents);
-
-        // create a list of stateCapitalMarkers and add them to map
-        /* stateCapitalMarker: located at a state's capital;
-         when selected, it displays the number of shooting,
-         number of people killed and injured in a selected year.
-         */
         String stateFile = "data/usa-state-capitals.geo.json";
-        stateCapitals = GeoJSONReader.loadData(this, stateFile);
-        stateCapitalMarkers = createStateMarkers(stateCapitals, statByYearByState);
-        map.addMarkers(stateCapitalMarkers);
-
-        // create a list of incidentMarkers and add them to map
-        /* incidentMarker: located at a specific address (specified by longitude and latitude) where shooting happened;
-        when selected, it displays the address, date of crime, number of people killed and injured.
-         */
-        incidentMarkers = createIncidentMarkers(gunIncidents);
-        map.addMarkers(incidentMarkers);
-        hideAllMarkers(incidentMarkers);
+        loader = new BackgroundLoader(this);
+        loader.load(() -> {
+            IncidentSnapshot data = IncidentSnapshot.load(this, gunViolenceFile, stateFile);
+            IncidentBitmapIndex index = IncidentBitmapIndex.of(data.getIncidents());
+            IncidentTimeline byDay = IncidentTimeline.byState(data.getIncidents());
+            loader.publish(() -> {
+                incidentIndex = index;
+                timeline = byDay;
+            });
+            return data;
+        }, data -> {
+            gunIncidents = data.getIncidents();
+            statByYearByState = data.getStatByYearByState(); // shootings, killed and injured per (year, state)
+
+            // state capitals for stateCapitalMarkers
+            /* stateCapitalMarker: located at a state's capital;
+             when selected, it displays the number of shooting,
+             number of people killed and injured in a selected year.
+             */
+            stateCapitals = data.getStateCapitals();
+
+            // date range slider over the whole span of the data, starting on the selected year
+            rangeSlider = new RangeSlider(775, 480, 190, timeline.getFirstDay(), timeline.getLastDay());
+            selectYearRange(selectedYear);
+
+            // heatmap of the selected year, drawn below the markers when enabled
+            heatmap = new HeatmapLayer(loader, gunIncidents);
+            if (!showHeatmap) heatmap.disableDrawing();
+            map.addMarkerManager(heatmap);
+
+            // create a list of incidentMarkers for the selected year and add them to map
+            /* incidentMarker: located at a specific address (specified by longitude and latitude) where shooting happened;
+            when selected, it displays the address, date of crime, number of people killed and injured.
+             */
+            showYear(selectedYear);
+        });
     }
 
     public void draw() {
         background(200);
         map.draw();
         drawButtons();
+        drawRangeSlider();
         showInfoBox();
+        if (loader.isLoading()) {
+            fill(0);
+            text("Loading data...", 770, 540);
+        }
+    }
+
+    @Override
+    public void mousePressed() {
+        if (rangeSlider != null && rangeSlider.press(mouseX, mouseY)) {
+            playing = false;
+        }
+    }
+
+    @Override
+    public void mouseDragged() {
+        if (rangeSlider != null && rangeSlider.isDragging() && rangeSlider.drag(mouseX)) {
+            applyRange();
+        }
     }
 
     /** Event handler that gets called automatically when the mouse moves. */
@@ -110,33 +186,59 @@ public class GunViolenceMap extends PApplet {
         /*
         Refresh the display of markers when a year (different from selectedYear) is selected;
          */
+        if (rangeSlider != null && rangeSlider.isDragging()) {
+            rangeSlider.release();
+            return;
+        }
         if (mouseX > 770 && mouseX < 770+BUTTON_SIZE) {
+            String year = selectedYear;
             if (mouseY > 575 && mouseY < 575+BUTTON_SIZE) {
-                selectedYear = "2020";
+                year = "2020";
             } else if (mouseY > 600 && mouseY < 600+BUTTON_SIZE) {
-                selectedYear = "2019";
+                year = "2019";
             } else if (mouseY > 625 && mouseY < 625+BUTTON_SIZE) {
-                selectedYear = "2018";
+                year = "2018";
+            }
+            if (!year.equals(selectedYear)) {
+                selectedYear = year;
+                if (gunIncidents != null) { // otherwise shown once loaded
+                    selectYearRange(selectedYear);
+                    showYear(selectedYear);
+                }
+            }
+            if (mouseY > 505 && mouseY < 505+BUTTON_SIZE) {
+                playing = !playing && rangeSlider != null;
+            }
+            if (mouseY > 650 && mouseY < 650+BUTTON_SIZE) {
+                showHeatmap = !showHeatmap;
+                if (heatmap != null) {
+                    if (showHeatmap) heatmap.enableDrawing();
+                    else heatmap.disableDrawing();
+                }
+            }
+        } else if (mouseX > 880 && mouseX < 880+BUTTON_SIZE) {
+            if (mouseY > 575 && mouseY < 575+BUTTON_SIZE) {
+                minKilled = nextStep(minKilled);
+                attachStateIncidents();
+            } else if (mouseY > 600 && mouseY < 600+BUTTON_SIZE) {
+                minInjured = nextStep(minInjured);
+                attachStateIncidents();
             }
-            map.getDefaultMarkerManager().clearMarkers();
-            stateCapitalMarkers = createStateMarkers(stateCapitals, statByYearByState);
-            incidentMarkers = createIncidentMarkers(gunIncidents);
-            map.addMarkers(stateCapitalMarkers);
-            map.addMarkers(incidentMarkers);
-            hideAllMarkers(incidentMarkers);
         }
     }
 
     @Override
     public void mouseMoved() {
+        if (shownYearMarkers == null) return; // still loading
+
         // clear the last selection
         if (lastSelectedMarker != null) {
             lastSelectedMarker.setSelected(false);
             lastSelectedMarker = null;
         }
-        selectMarkerIfHover(stateCapitalMarkers);
-        if (lastSelectedMarker == null) {
-            selectMarkerIfHover(incidentMarkers);
+        selectMarkerIfHover(shownYearMarkers.stateIndex);
+        if (lastSelectedMarker == null && shownIncidentIndex != null) {
+            selectMarkerIfHover(shownIncidentIndex);
         }
     }
 
@@ -148,17 +250,18 @@ public class GunViolenceMap extends PApplet {
         Additionally, incident markers in last clicked state will disappear and
         last clicked state marker will appear again.
          */
+        if (shownYearMarkers == null) return; // still loading
 
         checkStateMarkersForClick(); // get currClick
         if (currClick != null) {
             if (lastClick != null
             && !currClick.getStringProperty("state").equals(lastClick.getStringProperty("state"))) {
                 lastClick.setHidden(false); // un-hide the last clicked state
-                hideAllMarkers(incidentMarkers); // hide incident markers belonging to the last clicked state
+                hideStateIncidents(); // hide incident markers belonging to the last clicked state
             }
 //            map.zoomAndPanTo(7, currClick.getLocation()); // zoom in on clicked state
             currClick.setHidden(true); // hide currently clicked state
-            showIncidentMarkersInClickedState(); // show incidents located in the clicked state
+            showStateIncidents(currClick); // show incidents located in the clicked state
 
             // update lastClick and clear currClick
             lastClick = currClick;
@@ -167,57 +270,232 @@ public class GunViolenceMap extends PApplet {
     }
 
     /** helper methods */
+    private void showYear(String year) {
+        /*
+        Swaps the marker set of the given year into the map. Marker sets are built in the background
+        the first time a year is shown and cached in their own MarkerManagers, so switching back is
+        constant-time. The state markers are swapped in as soon as they are ready (if that year is
+        still selected); the incident markers follow in chunks while they are built.
+         */
+        YearMarkers next = markersByYear.get(year);
+        if (next == null) {
+            if (yearsLoading.add(year)) {
+                loader.load(() -> {
+                    YearMarkers markers = createYearMarkers(year);
+                    loader.publish(() -> {
+                        markersByYear.put(year, markers);
+                        if (year.equals(selectedYear)) showYear(year);
+                    });
+                    createIncidentMarkers(markers);
+                    return markers;
+                }, markers -> yearsLoading.remove(year));
+            }
+            return;
+        }
+
+        if (shownYearMarkers != null) {
+            resetSelection();
+            map.removeMarkerManager(shownYearMarkers.stateManager);
+        }
+        map.addMarkerManager(next.stateManager);
+        heatmap.setYear(gunIncidents.findYearCode(Integer.parseInt(year)));
+        shownYearMarkers = next;
+        stateCapitalMarkers = next.stateMarkers;
+        applyRange(); // the set may have been shown for another range before
+    }
+
+    private void selectYearRange(String year) {
+        int y = Integer.parseInt(year);
+        rangeSlider.setRange((int) LocalDate.of(y, 1, 1).toEpochDay(), (int) LocalDate.of(y, 12, 31).toEpochDay());
+        applyRange();
+    }
+
+    private void applyRange() {
+        /*
+        Sets the counts of the shown state markers to their totals over the selected date range.
+        Each total is a difference of two running totals, so this costs O(states) however long
+        the range is, and can run on every frame of a drag or playback.
+         */
+        if (rangeSlider == null) return;
+        int from = rangeSlider.getLow();
+        int to = rangeSlider.getHigh();
+        rangeText = LocalDate.ofEpochDay(from).format(IncidentTable.DATE_FORMAT) + " -\n"
+                + LocalDate.ofEpochDay(to).format(IncidentTable.DATE_FORMAT);
+        if (shownYearMarkers == null) return;
+
+        for (Marker marker : stateCapitalMarkers) {
+            StateMarker m = (StateMarker) marker;
+            int state = gunIncidents.findStateCode(m.getStateName());
+            m.setCounts(timeline.get(state, from, to, IncidentStats.SHOOTINGS),
+                    timeline.get(state, from, to, IncidentStats.KILLED),
+                    timeline.get(state, from, to, IncidentStats.INJURED));
+        }
+        shownYearMarkers.stateManager.invalidate();
+        infoMarker = null; // format the info of a hovered state again
+    }
+
+    private void drawRangeSlider() {
+        /*
+        Draw the date range slider and the play/pause box; advance the range while playing.
+         */
+        if (rangeSlider == null) return;
+        if (playing) {
+            int length = rangeSlider.getHigh() - rangeSlider.getLow();
+            if (rangeSlider.getHigh() + PLAY_DAYS_PER_FRAME > rangeSlider.getMax()) {
+                rangeSlider.setRange(rangeSlider.getMin(), rangeSlider.getMin() + length); // start over
+            } else {
+                rangeSlider.setRange(rangeSlider.getLow() + PLAY_DAYS_PER_FRAME, rangeSlider.getHigh() + PLAY_DAYS_PER_FRAME);
+            }
+            applyRange();
+        }
+
+        fill(0);
+        textAlign(PConstants.LEFT, PConstants.TOP);
+        text(rangeText, 770, 440);
+        rangeSlider.draw(this);
+
+        fill(255);
+        rect(770, 505, BUTTON_SIZE, BUTTON_SIZE);
+        fill(0);
+        text(playing ? "Pause" : "Play", 790, 504);
+    }
+
+    private void resetSelection() {
+        /*
+        Undo hover and drill-down on the shown marker set so it looks fresh when shown again.
+         */
+        if (lastSelectedMarker != null) {
+            lastSelectedMarker.setSelected(false);
+            lastSelectedMarker = null;
+        }
+        if (lastClick != null) {
+            lastClick.setHidden(false);
+            hideStateIncidents();
+            lastClick = null;
+        }
+    }
+
     private void showInfoBox() {
 //        // draw a box
 //        fill(255);
 //        rect(770, 50, 200, 200, 10);
 
-        List<Marker> allMarkers = new ArrayList<>();
-        allMarkers.addAll(stateCapitalMarkers);
-        allMarkers.addAll(incidentMarkers);
-        for (Marker m : allMarkers) {
-            if (!m.isHidden() && m.isSelected()) {
-                CommonMarker marker = (CommonMarker) m;
-                String markerInfo = marker.printTitle();
-                // show text
-                fill(0);
-                text(markerInfo, 770, 55);
-            }
+        // only the hovered marker is selected (incl. cluster markers, which are in no list)
+        Marker m = lastSelectedMarker;
+        if (m != infoMarker) {
+            cacheInfoText(m);
+        }
+        if (m != null && !m.isHidden() && m.isSelected()) {
+            // show text
+            fill(0);
+            text(infoText, 0, infoLength, 770, 55);
         }
     }
 
-    private void showIncidentMarkersInClickedState() {
-        for (Marker m : incidentMarkers) {
-            if (m.getStringProperty("state").equals(currClick.getStringProperty("state"))) {
-                m.setHidden(false);
-            }
+    private void cacheInfoText(Marker m) {
+        /*
+        Formats the info of a marker once per selection change, into a reused char buffer,
+        so drawing the info box does not allocate while the selection stays the same.
+         */
+        infoMarker = m;
+        infoLength = 0;
+        if (m == null) return;
+        String info = ((CommonMarker) m).printTitle();
+        if (info.length() > infoText.length) {
+            infoText = new char[info.length()];
         }
+        info.getChars(0, info.length(), infoText, 0);
+        infoLength = info.length();
     }
 
-    private void checkStateMarkersForClick() {
-        for (Marker m : stateCapitalMarkers) {
-            if (m.isInside(map, mouseX, mouseY)) {
-                currClick = m;
-             }
+    private void showStateIncidents(Marker stateMarker) {
+        int stateCode = gunIncidents.findStateCode(stateMarker.getStringProperty("state"));
+        if (stateCode < 0) return;
+        shownState = stateCode;
+        attachStateIncidents();
+    }
+
+    private void attachStateIncidents() {
+        /*
+        Shows the incident markers of the drilled-down state that pass the killed/injured filter by
+        adding the (clustering) marker manager of that state and filter to the map. Managers are built
+        on first use and cached, so going back to a state or filter is constant-time. If the state's
+        markers are still being built, this is called again when their chunk arrives.
+         */
+        YearMarkers year = shownYearMarkers;
+        if (shownState < 0 || shownState >= year.loadedStates) return;
+        int filter = minKilled << 16 | minInjured;
+        ClusteringMarkerManager manager = year.getIncidentManager(shownState, filter);
+        if (manager == null) {
+            manager = createIncidentManager(selectStateIncidents(year, shownState));
+            year.putIncidentManager(shownState, filter, manager);
         }
+        if (manager == shownIncidentManager) return;
+
+        if (shownIncidentManager != null) map.removeMarkerManager(shownIncidentManager);
+        if (lastSelectedMarker != null) { // may be filtered out
+            lastSelectedMarker.setSelected(false);
+            lastSelectedMarker = null;
+        }
+        map.addMarkerManager(manager);
+        shownIncidentManager = manager;
+        shownIncidentIndex = new MarkerIndex(map, manager, width, height);
     }
 
-    private void hideAllMarkers(List<Marker> markers) {
-        for (Marker m : markers) {
-            m.setHidden(true);
+    private void addIncidentChunk(YearMarkers year, int firstState, int[] countByState, List<Marker> markers) {
+        /*
+        Appends a published chunk of incident markers to their marker set, on the animation thread;
+        the drilled-down state is attached if its markers just arrived.
+         */
+        boolean waiting = year == shownYearMarkers && shownState >= year.loadedStates;
+        year.addIncidents(firstState, countByState, markers);
+        if (waiting && shownState < year.loadedStates) {
+            attachStateIncidents();
         }
     }
 
-    private void selectMarkerIfHover(List<Marker> markers) {
+    private List<Marker> selectStateIncidents(YearMarkers year, int state) {
+        /*
+        Incident markers of a state that pass the killed/injured filter. The matching rows come from
+        ANDing the bitmaps of the year, the state and the two lower bounds.
+         */
+        if (minKilled == 0 && minInjured == 0) {
+            return year.getStateIncidents(state, null);
+        }
+        CompressedBitmap rows = incidentIndex.select(new IncidentBitmapIndex.Filter()
+                .where(IncidentStats.Dimension.YEAR, gunIncidents.findYearCode(Integer.parseInt(year.year)))
+                .where(IncidentStats.Dimension.STATE, state)
+                .minKilled(minKilled)
+                .minInjured(minInjured));
+        return year.getStateIncidents(state, rows);
+    }
+
+    private int nextStep(int minCount) {
+        for (int step : MIN_COUNT_STEPS) {
+            if (step > minCount) return step;
+        }
+        return MIN_COUNT_STEPS[0];
+    }
+
+    private void hideStateIncidents() {
+        if (shownIncidentManager != null) map.removeMarkerManager(shownIncidentManager);
+        shownIncidentManager = null;
+        shownIncidentIndex = null;
+        shownState = -1;
+    }
+
+    private void checkStateMarkersForClick() {
+        currClick = shownYearMarkers.stateIndex.getFirstHit(mouseX, mouseY);
+    }
+
+    private void selectMarkerIfHover(MarkerIndex index) {
         // abort if a marker is already selected
         if (lastSelectedMarker != null) return;
 
-        for (Marker m : markers) {
-            if (m.isInside(map, mouseX, mouseY)) {
-                lastSelectedMarker = m;
-                m.setSelected(true);
-                return;
-            }
+        Marker m = index.getFirstHit(mouseX, mouseY);
+        if (m != null) {
+            lastSelectedMarker = m;
+            m.setSelected(true);
         }
     }
 
@@ -231,6 +509,9 @@ public class GunViolenceMap extends PApplet {
         rect(770, 625, BUTTON_SIZE, BUTTON_SIZE); // bottom box (2018)
         rect(770, 600, BUTTON_SIZE, BUTTON_SIZE); // 2019
         rect(770, 575, BUTTON_SIZE, BUTTON_SIZE); // 2020
+        rect(770, 650, BUTTON_SIZE, BUTTON_SIZE); // heatmap on/off
+        rect(880, 575, BUTTON_SIZE, BUTTON_SIZE); // minimum killed
+        rect(880, 600, BUTTON_SIZE, BUTTON_SIZE); // minimum injured
 
         // add text
         fill(0);
@@ -238,6 +519,9 @@ public class GunViolenceMap extends PApplet {
         text("2018", 790, 624);
         text("2019", 790, 599);
         text("2020", 790, 574);
+        text("Heatmap", 790, 649);
+        text("Killed " + minKilled + "+", 900, 574);
+        text("Injured " + minInjured + "+", 900, 599);
 
         // shade the selected box
         fill(100);
@@ -252,64 +536,171 @@ public class GunViolenceMap extends PApplet {
                 rect(770, 575, BUTTON_SIZE, BUTTON_SIZE);
                 break;
         }
+        if (showHeatmap) {
+            rect(770, 650, BUTTON_SIZE, BUTTON_SIZE);
+        }
+        if (minKilled > 0) {
+            rect(880, 575, BUTTON_SIZE, BUTTON_SIZE);
+        }
+        if (minInjured > 0) {
+            rect(880, 600, BUTTON_SIZE, BUTTON_SIZE);
+        }
     }
 
-    private HashMap<String,HashMap<String,ArrayList<Integer>>> createStatByYearByState(List<PointFeature> gunIncidents) {
+    private YearMarkers createYearMarkers(String year) {
         /*
-        Generates stat for each state in a given year:
-            - Number of shootings
-            - Number of people killed
-            - Number of people injured
+        Builds the state markers of a year; runs on a background thread. Incident markers are
+        added by createIncidentMarkers().
          */
-        HashMap<String,HashMap<String,ArrayList<Integer>>> statByYearByState = new HashMap<>();
-        for (Feature incident: gunIncidents) {
-            // get stats
-            ArrayList<Integer> stat;
-            String state = incident.getProperty("state").toString();
-            String year = incident.getProperty("year").toString();
-            int nKilled = Integer.parseInt(incident.getProperty("nKilled").toString());
-            int nInjured = Integer.parseInt(incident.getProperty("nInjured").toString());
-            int nShooting = 0;
-
-            if (! statByYearByState.containsKey(year)) {
-                statByYearByState.put(year, new HashMap<>());
+        return new YearMarkers(map, year, createStateMarkers(year, stateCapitals, statByYearByState),
+                gunIncidents.getStateCount(), width, height);
+    }
+
+    private List<Marker> createStateMarkers(String year, List<Feature> stateCapitals, IncidentStats statByYearByState) {
+        /*
+        Creates a marker for every state with a recorded incident, counting the incidents of the
+        given year; states with none in that year are not drawn until a date range includes some.
+         */
+        List<Marker> markers = new ArrayList<>();
+        int yearCode = gunIncidents.findYearCode(Integer.parseInt(year));
+
+        for (Feature state : stateCapitals) {
+            // skip states without any recorded incident
+            int stateCode = gunIncidents.findStateCode(state.getStringProperty("state"));
+            if (stateCode < 0) continue;
+            if (yearCode < 0) {
+                markers.add(new StateMarker((PointFeature) state, 0, 0, 0));
+                continue;
             }
 
-            if (! statByYearByState.get(year).containsKey(state)) {
-                stat = new ArrayList<>(Arrays.asList(nShooting+1, nKilled, nInjured));
-            } else {
-                nShooting = statByYearByState.get(year).get(state).get(0);
-                int currKilled = statByYearByState.get(year).get(state).get(1);
-                int currInjured = statByYearByState.get(year).get(state).get(2);
-                stat = new ArrayList<>(Arrays.asList(nShooting+1, nKilled+currKilled, nInjured+currInjured));
+            StateMarker m = new StateMarker((PointFeature) state,
+                    statByYearByState.get(yearCode, stateCode, IncidentStats.SHOOTINGS),
+                    statByYearByState.get(yearCode, stateCode, IncidentStats.KILLED),
+                    statByYearByState.get(yearCode, stateCode, IncidentStats.INJURED));
+            markers.add(m);
+        }
+        return markers;
+    }
+
+    private void createIncidentMarkers(YearMarkers year) {
+        /*
+        Creates the incident markers of a year state by state, on a background thread, and
+        publishes them in chunks of about MARKER_CHUNK markers; a chunk always ends with a complete
+        state. The rows of each state are the AND of its bitmap and the year's.
+         */
+        int yearCode = gunIncidents.findYearCode(Integer.parseInt(year.year));
+        int stateCount = gunIncidents.getStateCount();
+        List<Marker> chunk = new ArrayList<>();
+        int firstState = 0;
+        int[] countByState = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            int before = chunk.size();
+            if (yearCode >= 0) {
+                CompressedBitmap rows = incidentIndex.get(IncidentStats.Dimension.YEAR, yearCode)
+                        .and(incidentIndex.get(IncidentStats.Dimension.STATE, state));
+                rows.forEach(row -> chunk.add(new IncidentMarker(gunIncidents, row, this, INCIDENT_ICON)));
+            }
+            countByState[state] = chunk.size() - before;
+
+            if (chunk.size() >= MARKER_CHUNK || state == stateCount - 1) {
+                List<Marker> markers = new ArrayList<>(chunk);
+                int from = firstState;
+                int[] counts = Arrays.copyOfRange(countByState, firstState, state + 1);
+                loader.publish(() -> addIncidentChunk(year, from, counts, markers));
+                chunk.clear();
+                firstState = state + 1;
             }
-            statByYearByState.get(year).put(state, stat);
         }
-        return statByYearByState;
     }
 
-    private List<Marker> createStateMarkers(List<Feature> stateCapitals, HashMap<String,HashMap<String,ArrayList<Integer>>> statByYearByState) {
-        List<Marker> markers = new ArrayList<>();
-        HashMap<String,ArrayList<Integer>> statByState = statByYearByState.get(selectedYear);
+    private ClusteringMarkerManager createIncidentManager(List<Marker> markers) {
+        /*
+        Clusters incident markers by zoom level; cluster bubbles show the number of incidents
+        and the total number of people killed and injured.
+         */
+        int clusterColor = color(222,114,102); // red-ish
+        return new ClusteringMarkerManager(markers, clusterValues(markers), CLUSTER_MIN_ZOOM, CLUSTER_MAX_ZOOM, CLUSTER_RADIUS,
+                (index, zoom, c) -> new ClusterMarker(
+                        new Location(index.getLatitude(zoom, c), index.getLongitude(zoom, c)),
+                        index.getPointCount(zoom, c),
+                        (int) index.getSum(zoom, c, 0),
+                        (int) index.getSum(zoom, c, 1),
+                        clusterColor));
+    }
 
-        for (Feature state : stateCapitals) {
-            try {
-                StateMarker m = new StateMarker((PointFeature) state, statByState);
-                markers.add(m);
-            } catch (Exception ignored) {}
+    private float[][] clusterValues(List<Marker> markers) {
+        /*
+        People killed and injured per incident marker, summed up by the cluster bubbles.
+         */
+        float[][] values = new float[2][markers.size()];
+        for (int i = 0; i < markers.size(); i++) {
+            CommonMarker m = (CommonMarker) markers.get(i);
+            values[0][i] = m.getKilled();
+            values[1][i] = m.getInjured();
         }
-        return markers;
+        return values;
     }
 
-    private List<Marker> createIncidentMarkers(List<PointFeature> gunIncidents) {
-        List<Marker> markers = new ArrayList<>();
-        for (PointFeature gunIncident : gunIncidents) {
-            String year = gunIncident.getStringProperty("year");
-            if (year.equals(selectedYear)) {
-                Marker m = new IncidentMarker(gunIncident, loadImage("data/marker8.png"));
-                markers.add(m);
+    /*
+     * State and incident markers of one year. State markers are drawn in batches by their own
+     * MarkerManager; incident markers arrive in chunks (addIncidents()) and the incidents of each state
+     * get their own clustering MarkerManager per killed/injured filter on first drill-down.
+     * Every manager is hit-tested through its own spatial index.
+     */
+    private static class YearMarkers {
+        final String year;
+        final List<Marker> stateMarkers;
+        final List<Marker> incidentMarkers = new ArrayList<>(); // filled in chunks by addIncidents()
+        final StateMarkerBatch stateManager = new StateMarkerBatch();
+        final int[] incidentStateStart; // incident markers of state s: [incidentStateStart[s], incidentStateStart[s+1])
+        int loadedStates; // states whose incident markers have arrived
+        final HashMap<Long, ClusteringMarkerManager> incidentManagers = new HashMap<>(); // by state and filter
+        final MarkerIndex stateIndex;
+
+        YearMarkers(UnfoldingMap map, String year, List<Marker> stateMarkers, int stateCount,
+                    float width, float height) {
+            this.year = year;
+            this.stateMarkers = stateMarkers;
+            this.incidentStateStart = new int[stateCount + 1];
+            this.stateIndex = new MarkerIndex(map, stateMarkers, width, height);
+            stateManager.addMarkers(stateMarkers);
+        }
+
+        /*
+         * Appends the incident markers of states [firstState, firstState + countByState.length).
+         */
+        void addIncidents(int firstState, int[] countByState, List<Marker> markers) {
+            incidentMarkers.addAll(markers);
+            for (int i = 0; i < countByState.length; i++) {
+                incidentStateStart[firstState + i + 1] = incidentStateStart[firstState + i] + countByState[i];
             }
+            loadedStates = firstState + countByState.length;
+        }
+
+        /*
+         * @param rows - incident rows to keep, or null for all
+         * @return new list of the incident markers of a loaded state (incidentMarkers grows as chunks arrive)
+         */
+        List<Marker> getStateIncidents(int state, CompressedBitmap rows) {
+            int from = incidentStateStart[state];
+            int to = incidentStateStart[state + 1];
+            List<Marker> markers = new ArrayList<>(rows == null ? to - from : rows.getCardinality());
+            for (int i = from; i < to; i++) {
+                Marker m = incidentMarkers.get(i);
+                if (rows == null || rows.contains(((IncidentMarker) m).getRow())) markers.add(m);
+            }
+            return markers;
+        }
+
+        /*
+         * @param filter - minimum killed << 16 | minimum injured
+         */
+        ClusteringMarkerManager getIncidentManager(int state, int filter) {
+            return incidentManagers.get((long) state << 32 | filter);
+        }
+
+        void putIncidentManager(int state, int filter, ClusteringMarkerManager manager) {
+            incidentManagers.put((long) state << 32 | filter, manager);
         }
-        return markers;
     }
 }
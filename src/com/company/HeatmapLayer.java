@@ -0,0 +1,148 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import parsing.DensityGrid;
+import parsing.IncidentTable;
+import parsing.Mercator;
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map layer that shows the density of gun violence incidents of one year as a heatmap.
+ *
+ * Incidents are weighted by the number of people killed and injured and estimated on a grid
+ * (DensityGrid) sized for the map's zoom level. Each (year, zoom level) is computed once in the
+ * background and colored into an image, which is kept in a small LRU cache; a frame then draws
+ * one textured quad, whatever the number of incidents. Until the image of a zoom level is ready,
+ * the last image shown is drawn scaled.
+ *
+ * It is added to a map like any MarkerManager, but holds no markers.
+ */
+public class HeatmapLayer extends MarkerManager<Marker> {
+    private static final float BANDWIDTH = 12; // pixels
+    private static final int MAX_CELLS = 512;
+    private static final int CACHED_IMAGES = 24;
+
+    private final BackgroundLoader loader;
+    private final IncidentTable incidents;
+    private int yearCode = -1;
+
+    // heatmap images by (year, zoom level), least recently used first
+    private final LinkedHashMap<Integer, Heatmap> heatmaps = new LinkedHashMap<Integer, Heatmap>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Heatmap> eldest) {
+            return size() > CACHED_IMAGES;
+        }
+    };
+    private final HashSet<Integer> computing = new HashSet<>();
+    private Heatmap shown;
+    private final MapProjection projection = new MapProjection();
+
+    /*
+     * @param loader - computes the heatmaps in the background
+     * @param incidents - all incidents; setYear() picks those shown
+     */
+    public HeatmapLayer(BackgroundLoader loader, IncidentTable incidents) {
+        this.loader = loader;
+        this.incidents = incidents;
+    }
+
+    /*
+     * @param yearCode - year code of the incidents to show (IncidentTable.findYearCode)
+     */
+    public void setYear(int yearCode) {
+        this.yearCode = yearCode;
+        shown = null;
+    }
+
+    @Override
+    public void draw() {
+        if (!bEnableDrawing || map == null || yearCode < 0) return;
+
+        int zoom = map.getZoomLevel();
+        int key = yearCode * 64 + zoom;
+        Heatmap heatmap = heatmaps.get(key);
+        if (heatmap != null) {
+            shown = heatmap;
+        } else if (computing.add(key)) {
+            int year = yearCode;
+            loader.load(() -> compute(year, zoom), computed -> {
+                computing.remove(key);
+                if (computed != null) heatmaps.put(key, computed);
+            });
+        }
+        if (shown == null) return;
+
+        // one textured quad over the grid's bounds
+        projection.update(map);
+        float left = projection.getX(shown.x0);
+        float top = projection.getY(shown.y0);
+        float right = projection.getX(shown.x1);
+        float bottom = projection.getY(shown.y1);
+
+        PGraphics pg = map.mapDisplay.getOuterPG();
+        pg.imageMode(PApplet.CORNERS);
+        pg.image(shown.image, left, top, right, bottom);
+        pg.imageMode(PApplet.CORNER);
+    }
+
+    // helper methods
+    private Heatmap compute(int year, int zoom) {
+        /*
+        Estimates the density of a year's incidents and colors it; runs on a background thread.
+         */
+        int n = incidents.size();
+        float[] x = new float[n];
+        float[] y = new float[n];
+        float[] weight = new float[n];
+        int count = 0;
+        for (int row = 0; row < n; row++) {
+            if (incidents.getYearCode(row) != year) continue;
+            x[count] = (float) Mercator.lonX(incidents.getLongitude(row));
+            y[count] = (float) Mercator.latY(incidents.getLatitude(row));
+            weight[count] = Math.max(1, incidents.getKilled(row) + incidents.getInjured(row));
+            count++;
+        }
+        DensityGrid grid = DensityGrid.estimate(x, y, weight, count, zoom, BANDWIDTH, MAX_CELLS);
+        if (grid == null) return null;
+
+        Heatmap heatmap = new Heatmap();
+        heatmap.x0 = grid.getX0();
+        heatmap.y0 = grid.getY0();
+        heatmap.x1 = grid.getX1();
+        heatmap.y1 = grid.getY1();
+        heatmap.image = new PImage(grid.getWidth(), grid.getHeight(), PApplet.ARGB);
+        for (int r = 0; r < grid.getHeight(); r++) {
+            for (int c = 0; c < grid.getWidth(); c++) {
+                heatmap.image.pixels[r * grid.getWidth() + c] = colorOf(grid.get(c, r) / grid.getMax());
+            }
+        }
+        return heatmap;
+    }
+
+    private static int colorOf(float density) {
+        /*
+        Transparent where there is nothing, from translucent yellow to opaque red where density peaks;
+        the square root brings out sparse areas.
+         */
+        if (density <= 0.002f) return 0;
+        float t = (float) Math.sqrt(density);
+        int alpha = (int) (60 + 160 * t);
+        int green = (int) (230 * (1 - t));
+        return alpha << 24 | 255 << 16 | green << 8 | 20;
+    }
+
+    /*
+     * A colored density grid and its Mercator bounds.
+     */
+    private static class Heatmap {
+        PImage image;
+        float x0, y0, x1, y1;
+    }
+}
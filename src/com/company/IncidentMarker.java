@@ -1,6 +1,7 @@
 package com.company;
 
-import de.fhpotsdam.unfolding.data.PointFeature;
+import parsing.IncidentTable;
+import processing.core.PApplet;
 import processing.core.PConstants;
 import processing.core.PGraphics;
 import processing.core.PImage;
@@ -8,21 +9,38 @@ import processing.core.PImage;
 
 public class IncidentMarker extends CommonMarker {
     PImage img;
+    private final IncidentTable incidents;
+    private final int row;
 
     // constructor
-    public IncidentMarker(PointFeature feature, PImage img) {
-        super(feature.location, feature.properties);
-        this.nKilled = Integer.parseInt(feature.getProperty("nKilled").toString());
-        this.nInjured = Integer.parseInt(feature.getProperty("nInjured").toString());
-        this.img = img;
+    public IncidentMarker(IncidentTable incidents, int row, PApplet p, String imgPath) {
+        super(incidents.getLocation(row));
+        this.incidents = incidents;
+        this.row = row;
+        this.nKilled = incidents.getKilled(row);
+        this.nInjured = incidents.getInjured(row);
+        this.img = MarkerImageCache.get(p, imgPath); // shared with all markers using the same icon
+    }
+
+    /** getters for incident attributes (read from the incident table) */
+    public int getRow() {
+        return this.row;
     }
 
     public String getAddress() {
-        return getStringProperty("address");
+        return incidents.getAddress(row);
     }
 
     public String getStateName() {
-        return getStringProperty("state");
+        return incidents.getState(row);
+    }
+
+    public String getCounty() {
+        return incidents.getCounty(row);
+    }
+
+    public String getDate() {
+        return incidents.getDateString(row);
     }
 
     @Override
@@ -32,6 +50,7 @@ public class IncidentMarker extends CommonMarker {
 
     @Override
     public void drawMarker(PGraphics pg, float x, float y) {
+        if (img == null) return;
         pg.pushStyle();
         pg.imageMode(PConstants.CORNER);
         // The image is drawn in object coordinates, i.e. the marker's origin (0,0) is at its geo-location.
@@ -46,9 +65,9 @@ public class IncidentMarker extends CommonMarker {
 
         // get stat
         String name = getTitle();
-        String county = getStringProperty("county");
-        String state = getStringProperty("state");
-        String date = getStringProperty("date").replaceAll("^\"|\"$", "");
+        String county = getCounty();
+        String state = getStateName();
+        String date = getDate();
         String nKilled = "# People killed: " + this.nKilled;
         String nInjured = "# People injured: " + this.nInjured;
 
@@ -3,9 +3,10 @@ package com.company;
 import de.fhpotsdam.unfolding.UnfoldingMap;
 import de.fhpotsdam.unfolding.data.Feature;
 import de.fhpotsdam.unfolding.data.GeoJSONReader;
-import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.geo.Location;
 import de.fhpotsdam.unfolding.providers.OpenStreetMap;
 import de.fhpotsdam.unfolding.utils.MapUtils;
+import parsing.CountryIndex;
 import processing.core.PApplet;
 
 import java.util.*;
@@ -16,37 +17,72 @@ import java.util.*;
  * in various countries around the world using data from WHO (recorded in 2018):
  *      Blue color indicates high life expectancy
  *      Red color indicates low life expectancy
+ * Hover over a country to show its name and life expectancy.
  */
 public class LifeExpectancy extends PApplet {
     private UnfoldingMap worldMap;
     private Map<String, Double> lifeExpByCountry;
-    private List<Marker> countryMarkers;
+    private CountryIndex countries;
+    private ChoroplethLayer choropleth;
+    private int hovered = -1;
+    private BackgroundLoader loader;
+
+    // CONSTANTS
+    boolean ONLINE_TILES = false; // a world view at zoom 2 is covered by the bundled tiles
 
     public void setup() {
         // set up canvas
         size(700, 600, OPENGL);
 
         // set up worldmap
-        worldMap = new UnfoldingMap(this, 50, 50, 600, 500, new OpenStreetMap.OpenStreetMapProvider());
+        worldMap = MapTiles.createMap(this, 50, 50, 600, 500, ONLINE_TILES,
+                "data/blankLight-1-3.mbtiles", new OpenStreetMap.OpenStreetMapProvider());
         worldMap.zoomToLevel(2);
         MapUtils.createDefaultEventDispatcher(this, worldMap); // make map interactive
 
-        // create lists of features and markers
-        List<Feature> countries = GeoJSONReader.loadData(this, "data/countries.geo.json");
-        countryMarkers = MapUtils.createSimpleMarkers(countries);
-        worldMap.addMarkers(countryMarkers); // add markers to worldmap
+        // load countries and life expectancy data in the background, so the map is drawn right away
+        loader = new BackgroundLoader(this);
+        loader.load(() -> {
+            // read country shapes and index them
+            List<Feature> features = GeoJSONReader.loadData(this, "data/countries.geo.json");
+            CountryIndex index = new CountryIndex(features);
 
-        // load life expectancy data
-        String pathToFile = "data/LifeExpectancyWorldBank.csv";
-        lifeExpByCountry = loadLifeExpectancyFromCSV(pathToFile);
+            // load life expectancy data
+            String pathToFile = "data/LifeExpectancyWorldBank.csv";
+            lifeExpByCountry = loadLifeExpectancyFromCSV(pathToFile);
+            return index;
+        }, index -> {
+            countries = index;
 
-        // shade countries according to recorded life expectancies
-        shadeCountries();
+            // shade countries according to recorded life expectancies
+            choropleth = new ChoroplethLayer(this, countries);
+            shadeCountries();
+            worldMap.addMarkerManager(choropleth); // add countries layer to worldmap
+        });
     }
 
     public void draw() {
         background(200);
         worldMap.draw();
+        if (loader.isLoading()) {
+            fill(0);
+            text("Loading data...", 50, 570);
+        } else if (hovered >= 0) {
+            fill(0);
+            String countryID = countries.getId(hovered);
+            String info = countries.getName(hovered) + ": " + (lifeExpByCountry.containsKey(countryID)
+                    ? nf(lifeExpByCountry.get(countryID).floatValue(), 0, 1) + " years" : "no data");
+            text(info, 50, 570);
+        }
+    }
+
+    @Override
+    public void mouseMoved() {
+        // country under the mouse, found through the polygon index
+        if (countries == null) return;
+        Location location = worldMap.getLocation(mouseX, mouseY);
+        hovered = worldMap.isHit(mouseX, mouseY) ? countries.find(location) : -1;
+        choropleth.setHighlighted(hovered, color(255));
     }
 
     private void shadeCountries() {
@@ -55,16 +91,18 @@ public class LifeExpectancy extends PApplet {
             The higher the life expectancy, the more "blue" it is;
             The lower the life expectancy, the more "red" it is;
          */
-        for (Marker marker : countryMarkers) {
-            String countryID = marker.getId();
+        int[] colors = new int[countries.getCountryCount()];
+        for (int country = 0; country < colors.length; country++) {
+            String countryID = countries.getId(country);
             if (lifeExpByCountry.containsKey(countryID)) {
                 double age = lifeExpByCountry.get(countryID);
                 int colorLevel = (int) map((float) age, 40, 90, 0, 255);
-                marker.setColor(color(255-colorLevel, 100, colorLevel));
+                colors[country] = color(255-colorLevel, 100, colorLevel);
             } else {
-                marker.setColor(color(150)); // grey color for countries with no recorded life expectancy
+                colors[country] = color(150); // grey color for countries with no recorded life expectancy
             }
         }
+        choropleth.setColors(colors);
     }
 
     private Map<String, Double> loadLifeExpectancyFromCSV(String pathToFile) {
@@ -89,6 +127,6 @@ public class LifeExpectancy extends PApplet {
 
     public static void main(String[] args) {
         System.setProperty("http.agent", "Chrome");
-        PApplet.main("com.company.LifeExpectancy");
+        PApplet.main("com.company.LifeExpectancy", args);
     }
 }
@@ -0,0 +1,95 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import parsing.Mercator;
+
+/**
+ * Projection of Web Mercator coordinates (parsing.Mercator) onto a map, calibrated once per frame.
+ *
+ * At a given zoom, a map position is linear in Mercator coordinates, so it is measured on the
+ * map's own projection at three locations and then applied to any number of points with one
+ * multiply-add per axis, instead of projecting every point through the map.
+ */
+public class MapProjection {
+    private static final Location REFERENCE = new Location(0, 0);
+    private static final Location EAST = new Location(0, 90);
+    private static final Location NORTH = new Location(60, 0);
+    private static final double REFERENCE_X = Mercator.lonX(REFERENCE.getLon());
+    private static final double REFERENCE_Y = Mercator.latY(REFERENCE.getLat());
+
+    private float originX; // map position of REFERENCE
+    private float originY;
+    private float scaleX; // per Mercator unit
+    private float scaleY;
+
+    /*
+     * Calibrates on object positions, as drawn into the map's own graphics (e.g. by a MarkerManager).
+     */
+    public void update(UnfoldingMap map) {
+        float[] ref = map.mapDisplay.getObjectFromLocation(REFERENCE);
+        float[] east = map.mapDisplay.getObjectFromLocation(EAST);
+        float[] north = map.mapDisplay.getObjectFromLocation(NORTH);
+        calibrate(ref[0], ref[1], east[0], north[1]);
+    }
+
+    /*
+     * Calibrates on screen positions, as drawn by the sketch on top of the map.
+     */
+    public void updateScreen(UnfoldingMap map) {
+        ScreenPosition ref = map.getScreenPosition(REFERENCE);
+        ScreenPosition east = map.getScreenPosition(EAST);
+        ScreenPosition north = map.getScreenPosition(NORTH);
+        calibrate(ref.x, ref.y, east.x, north.y);
+    }
+
+    /*
+     * @param x - Mercator x
+     * @return map position
+     */
+    public float getX(double x) {
+        return originX + (float) (x - REFERENCE_X) * scaleX;
+    }
+
+    public float getY(double y) {
+        return originY + (float) (y - REFERENCE_Y) * scaleY;
+    }
+
+    /*
+     * @param x - map position
+     * @return Mercator x
+     */
+    public float getMercatorX(float x) {
+        return (float) ((x - originX) / scaleX + REFERENCE_X);
+    }
+
+    public float getMercatorY(float y) {
+        return (float) ((y - originY) / scaleY + REFERENCE_Y);
+    }
+
+    /** getters */
+    public float getOriginX() {
+        return originX;
+    }
+
+    public float getOriginY() {
+        return originY;
+    }
+
+    public float getScaleX() {
+        return scaleX;
+    }
+
+    public float getScaleY() {
+        return scaleY; // < 0 when north is up
+    }
+
+    // helper methods
+    private void calibrate(float refX, float refY, float eastX, float northY) {
+        originX = refX;
+        originY = refY;
+        scaleX = (float) ((eastX - refX) / (Mercator.lonX(EAST.getLon()) - REFERENCE_X));
+        scaleY = (float) ((northY - refY) / (Mercator.latY(NORTH.getLat()) - REFERENCE_Y));
+    }
+}
@@ -0,0 +1,49 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.providers.AbstractMapProvider;
+import processing.core.PApplet;
+
+/**
+ * Creates the maps of the sketches with their tile source:
+ *      - offline, from a bundled MBTiles file (OfflineTileProvider), prefetched as the map is panned;
+ *      the bundled files only cover zoom levels 1-3, deeper tiles are scaled up;
+ *      - online, from a tile server (CachingTileProvider), with downloaded tiles kept in memory and in
+ *      one MBTiles file per provider under CACHE_DIR.
+ * Each sketch picks a default; the "online" or "offline" argument of the sketch overrides it.
+ */
+public class MapTiles {
+    public static final String CACHE_DIR = "data/tile-cache/";
+
+    /*
+     * @param p - sketch the map is drawn in
+     * @param x, y, width, height - map area in the sketch
+     * @param online - default tile source: true for onlineProvider, false for offlineFile
+     * @param offlineFile - MBTiles file, e.g. "data/blankLight-1-3.mbtiles"
+     * @param onlineProvider - tile server, e.g. new OpenStreetMap.OpenStreetMapProvider()
+     */
+    public static UnfoldingMap createMap(PApplet p, float x, float y, float width, float height, boolean online,
+                                         String offlineFile, AbstractMapProvider onlineProvider) {
+        if (isOnline(p, online)) {
+            String cacheFile = CACHE_DIR + onlineProvider.getClass().getSimpleName() + ".mbtiles";
+            return new UnfoldingMap(p, x, y, width, height, new CachingTileProvider(p, onlineProvider, cacheFile));
+        }
+        OfflineTileProvider tiles = new OfflineTileProvider(p, offlineFile);
+        UnfoldingMap map = new UnfoldingMap(p, x, y, width, height, tiles);
+        tiles.follow(map);
+        return map;
+    }
+
+    /*
+     * @param online - default if the sketch has neither an "online" nor an "offline" argument
+     */
+    public static boolean isOnline(PApplet p, boolean online) {
+        if (p.args != null) {
+            for (String arg : p.args) {
+                if (arg.equals("online")) return true;
+                if (arg.equals("offline")) return false;
+            }
+        }
+        return online;
+    }
+}
@@ -0,0 +1,41 @@
+package com.company;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.util.HashMap;
+
+/**
+ * Process-wide cache of marker icons (data/marker*.png), keyed by path.
+ *
+ * Every icon is decoded once and the same PImage (and so the same texture) is handed out to all
+ * markers using it. Icons are kept for the life of the sketch: marker sets are cached by year and
+ * never discarded, and there are only a handful of small icons.
+ */
+public final class MarkerImageCache {
+    private static final HashMap<String, PImage> images = new HashMap<>();
+
+    private MarkerImageCache() {}
+
+    /*
+     * Returns the shared icon for a path, loading it on first use.
+     *
+     * @param p - PApplet used to load the image
+     * @param path - file name or URL of the icon
+     * @return PImage, or null if the icon could not be loaded
+     */
+    public static synchronized PImage get(PApplet p, String path) {
+        PImage img = images.get(path);
+        if (img == null) {
+            img = p.loadImage(path);
+            if (img == null) return null;
+            images.put(path, img);
+        }
+        return img;
+    }
+
+    /** getters for cache state */
+    public static synchronized int size() {
+        return images.size();
+    }
+}
@@ -0,0 +1,168 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Screen-space uniform grid over a list of markers, used for hover and click hit-testing.
+ *
+ * The grid buckets the screen positions of all markers inside the window. It is rebuilt lazily
+ * when the map has been panned or zoomed since the last query, so a query only calls isInside()
+ * on the few markers in the cells around the cursor instead of on every marker.
+ *
+ * An index can also follow the marker list of a MarkerManager; it is rebuilt whenever the manager
+ * swaps in a different list (e.g. the clusters of another zoom level).
+ */
+public class MarkerIndex {
+    private static final Location REFERENCE = new Location(0, 0); // detects pan/zoom
+
+    private final UnfoldingMap map;
+    private final MarkerManager<Marker> manager;
+    private List<Marker> markers;
+    private final float width;
+    private final float height;
+    private final float cellSize;
+    private final float searchRadius;
+
+    // grid in compressed form: markers of cell c are entries[cellStart[c] .. cellStart[c+1])
+    private int columns;
+    private int rows;
+    private int[] cellStart;
+    private int[] entries;
+
+    // map state the grid was built for
+    private boolean valid;
+    private float builtZoom;
+    private float builtX;
+    private float builtY;
+
+    // constructors
+    public MarkerIndex(UnfoldingMap map, List<Marker> markers, float width, float height) {
+        this(map, markers, width, height, 32, 32);
+    }
+
+    public MarkerIndex(UnfoldingMap map, MarkerManager<Marker> manager, float width, float height) {
+        this(map, manager, manager.getMarkers(), width, height, 32, 32);
+    }
+
+    /*
+     * @param map - map the markers are drawn on
+     * @param markers - markers to index; earlier markers win when several are hit
+     * @param width, height - size of the window in pixels
+     * @param cellSize - size of a grid cell in pixels
+     * @param searchRadius - largest hit radius of any marker in pixels
+     */
+    public MarkerIndex(UnfoldingMap map, List<Marker> markers, float width, float height,
+                       float cellSize, float searchRadius) {
+        this(map, null, markers, width, height, cellSize, searchRadius);
+    }
+
+    private MarkerIndex(UnfoldingMap map, MarkerManager<Marker> manager, List<Marker> markers,
+                        float width, float height, float cellSize, float searchRadius) {
+        this.map = map;
+        this.manager = manager;
+        this.markers = markers;
+        this.width = width;
+        this.height = height;
+        this.cellSize = cellSize;
+        this.searchRadius = searchRadius;
+    }
+
+    /*
+     * Forces a rebuild on the next query, e.g. after markers were moved.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /*
+     * Finds the first visible marker (in list order) under a screen position.
+     *
+     * @return Marker, or null if no marker is hit
+     */
+    public Marker getFirstHit(float x, float y) {
+        ensureValid();
+        if (x + searchRadius < 0 || y + searchRadius < 0 || x - searchRadius > width || y - searchRadius > height) {
+            return null;
+        }
+
+        int c0 = clamp((int) ((x - searchRadius) / cellSize), columns);
+        int c1 = clamp((int) ((x + searchRadius) / cellSize), columns);
+        int r0 = clamp((int) ((y - searchRadius) / cellSize), rows);
+        int r1 = clamp((int) ((y + searchRadius) / cellSize), rows);
+
+        int best = Integer.MAX_VALUE;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int index = entries[i];
+                    if (index >= best) break; // entries are sorted within a cell
+                    Marker m = markers.get(index);
+                    if (!m.isHidden() && m.isInside(map, x, y)) {
+                        best = index;
+                    }
+                }
+            }
+        }
+        return best == Integer.MAX_VALUE ? null : markers.get(best);
+    }
+
+    // helper methods
+    private void ensureValid() {
+        if (manager != null && manager.getMarkers() != markers) {
+            markers = manager.getMarkers();
+            valid = false;
+        }
+        ScreenPosition ref = map.getScreenPosition(REFERENCE);
+        float zoom = map.getZoom();
+        if (valid && zoom == builtZoom && ref.x == builtX && ref.y == builtY) {
+            return;
+        }
+        build();
+        valid = true;
+        builtZoom = zoom;
+        builtX = ref.x;
+        builtY = ref.y;
+    }
+
+    private void build() {
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        int cellCount = columns * rows;
+
+        // bucket markers by cell (counting sort keeps list order inside each cell)
+        int[] cellOf = new int[markers.size()];
+        cellStart = new int[cellCount + 1];
+        for (int i = 0; i < markers.size(); i++) {
+            ScreenPosition pos = map.getScreenPosition(markers.get(i).getLocation());
+            if (pos.x < 0 || pos.y < 0 || pos.x >= width || pos.y >= height) {
+                cellOf[i] = -1; // off-screen, cannot be hit
+                continue;
+            }
+            int cell = (int) (pos.y / cellSize) * columns + (int) (pos.x / cellSize);
+            cellOf[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 0; c < cellCount; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        entries = new int[cellStart[cellCount]];
+        int[] fill = Arrays.copyOf(cellStart, cellCount);
+        for (int i = 0; i < cellOf.length; i++) {
+            if (cellOf[i] >= 0) {
+                entries[fill[cellOf[i]]++] = i;
+            }
+        }
+    }
+
+    private static int clamp(int v, int n) {
+        return Math.max(0, Math.min(n - 1, v));
+    }
+}
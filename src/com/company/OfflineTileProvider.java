@@ -0,0 +1,331 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import org.sqlite.SQLiteConfig;
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Map provider that serves tiles from a local MBTiles file (e.g. data/blankLight-1-3.mbtiles),
+ * so maps work without network access:
+ *      - tiles are read through a small pool of read-only SQLite connections, each with its own
+ *      prepared statement, so the map's tile loader threads query the file concurrently;
+ *      - decoded tiles are kept in a TileCache bounded by pixel memory; a cached tile is returned
+ *      as the same image, so its texture is reused as well;
+ *      - follow() makes it watch a map and prefetch, on worker threads, the tiles just beyond
+ *      the visible area in the direction the map is panned, so they are cached before they show;
+ *      - above the highest zoom level in the file, tiles are cut from their ancestor tile and
+ *      scaled up, so the map can still be zoomed in.
+ */
+public class OfflineTileProvider extends MBTilesMapProvider {
+    private static final String TILE_QUERY =
+            "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+    private static final int POOL_SIZE = 4;
+    private static final long CACHE_BYTES = 64L << 20;
+    private static final int PREFETCH_DEPTH = 2; // tiles ahead of the visible area
+    private static final int MAX_PREFETCHES = 64; // queued prefetches
+
+    private final List<Connection> connections = new ArrayList<>();
+    private final BlockingQueue<PreparedStatement> statements = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final TileCache cache = new TileCache(CACHE_BYTES);
+    private final ConcurrentHashMap<Long, CompletableFuture<PImage>> loading = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "tile-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger prefetches = new AtomicInteger();
+    private int minZoom = 0;
+    private int maxZoom = Coordinate.MAX_ZOOM;
+
+    // map followed for prefetching, and its center (in tiles) on the last frame
+    private UnfoldingMap map;
+    private int lastZoom = -1;
+    private float lastColumn;
+    private float lastRow;
+
+    /*
+     * @param p - sketch; the provider is closed when it exits
+     * @param fileName - MBTiles file, relative to the sketch or data folder
+     */
+    public OfflineTileProvider(PApplet p, String fileName) {
+        super("jdbc:sqlite:" + resolve(p, fileName).getPath());
+        try {
+            Class.forName("org.sqlite.JDBC");
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            for (int i = 0; i < POOL_SIZE; i++) {
+                Connection connection = config.createConnection(jdbcConnectionString);
+                connections.add(connection);
+                statements.add(connection.prepareStatement(TILE_QUERY));
+            }
+            readZoomRange(connections.get(0));
+        } catch (ClassNotFoundException | SQLException e) {
+            System.err.println("Cannot open " + fileName + ": " + e.getMessage());
+        }
+        p.registerMethod("pre", this);
+        p.registerMethod("dispose", this);
+    }
+
+    /*
+     * Prefetches tiles for a map as it is panned.
+     */
+    public void follow(UnfoldingMap map) {
+        this.map = map;
+        lastZoom = -1;
+    }
+
+    /*
+     * Called by the map's tile loader threads.
+     *
+     * @return the tile, or null if the file has no tile at this position
+     */
+    @Override
+    public PImage getTile(Coordinate coordinate) {
+        int zoom = (int) coordinate.zoom;
+        int column = (int) coordinate.column;
+        int row = (int) coordinate.row;
+        if (zoom < minZoom || !inRange(zoom, column, row)) return null;
+        if (zoom <= maxZoom) return tile(zoom, column, row);
+
+        // cut the tile from its ancestor at the highest zoom level in the file
+        long key = TileCache.key(zoom, column, row);
+        PImage tile = cache.get(key);
+        if (tile != null) return tile;
+        int levels = zoom - maxZoom;
+        PImage ancestor = tile(maxZoom, column >> levels, row >> levels);
+        if (ancestor == null) return null;
+        tile = upscale(ancestor, column & ((1 << levels) - 1), row & ((1 << levels) - 1), 1 << levels);
+        cache.put(key, tile);
+        return tile;
+    }
+
+    /*
+     * Looks for pan movement of the followed map; called by Processing before every draw().
+     */
+    public void pre() {
+        if (map == null || connections.isEmpty()) return;
+
+        int zoom = Math.min(map.getZoomLevel(), maxZoom);
+        Coordinate center = locationCoordinate(map.getCenter()).zoomTo(zoom);
+        if (zoom != lastZoom) {
+            lastZoom = zoom;
+            lastColumn = center.column;
+            lastRow = center.row;
+            return;
+        }
+        float dx = center.column - lastColumn;
+        float dy = center.row - lastRow;
+        if (Math.abs(dx) < 0.01f && Math.abs(dy) < 0.01f) return;
+        lastColumn = center.column;
+        lastRow = center.row;
+
+        // visible tiles, then the bands beyond the edges the map is moving towards
+        Coordinate topLeft = locationCoordinate(clamp(map.getTopLeftBorder())).zoomTo(zoom);
+        Coordinate bottomRight = locationCoordinate(clamp(map.getBottomRightBorder())).zoomTo(zoom);
+        int left = (int) Math.floor(topLeft.column);
+        int right = (int) Math.floor(bottomRight.column);
+        int top = (int) Math.floor(topLeft.row);
+        int bottom = (int) Math.floor(bottomRight.row);
+        if (dx > 0) prefetch(zoom, right + 1, right + PREFETCH_DEPTH, top - 1, bottom + 1);
+        if (dx < 0) prefetch(zoom, left - PREFETCH_DEPTH, left - 1, top - 1, bottom + 1);
+        if (dy > 0) prefetch(zoom, left - 1, right + 1, bottom + 1, bottom + PREFETCH_DEPTH);
+        if (dy < 0) prefetch(zoom, left - 1, right + 1, top - PREFETCH_DEPTH, top - 1);
+    }
+
+    /*
+     * Closes the connections; called by Processing when the sketch exits.
+     */
+    public void dispose() {
+        workers.shutdownNow();
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        connections.clear();
+        statements.clear();
+    }
+
+    /** getters */
+    public TileCache getCache() {
+        return cache;
+    }
+
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    // helper methods
+    private PImage tile(int zoom, int column, int row) {
+        long key = TileCache.key(zoom, column, row);
+        PImage tile = cache.get(key);
+        if (tile != null) return tile;
+
+        // a tile is read once, other threads asking for it meanwhile wait for that read
+        CompletableFuture<PImage> read = new CompletableFuture<>();
+        CompletableFuture<PImage> pending = loading.putIfAbsent(key, read);
+        if (pending != null) return pending.join();
+        try {
+            tile = cache.get(key); // read completed between the cache lookup and now
+            if (tile == null) {
+                tile = decode(readTile(zoom, column, row));
+                if (tile != null) cache.put(key, tile);
+            }
+        } catch (SQLException | IOException | InterruptedException e) {
+            System.err.println("Cannot read tile " + zoom + "/" + column + "/" + row + ": " + e.getMessage());
+        } finally {
+            read.complete(tile);
+            loading.remove(key);
+        }
+        return tile;
+    }
+
+    private byte[] readTile(int zoom, int column, int row) throws SQLException, InterruptedException {
+        if (connections.isEmpty()) return null;
+        PreparedStatement statement = statements.take();
+        try {
+            statement.setInt(1, zoom);
+            statement.setInt(2, column);
+            statement.setInt(3, (1 << zoom) - 1 - row); // MBTiles rows count from the south
+            ResultSet result = statement.executeQuery();
+            byte[] data = result.next() ? result.getBytes(1) : null;
+            result.close();
+            return data;
+        } finally {
+            statements.add(statement);
+        }
+    }
+
+    static PImage decode(byte[] data) throws IOException {
+        if (data == null || data.length == 0) return null;
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) return null;
+        PImage tile = new PImage(image.getWidth(), image.getHeight(), PApplet.ARGB);
+        image.getRGB(0, 0, tile.width, tile.height, tile.pixels, 0, tile.width);
+        return tile;
+    }
+
+    private static PImage upscale(PImage ancestor, int column, int row, int factor) {
+        /*
+        Bilinear scaling of the part of the ancestor tile covering a descendant tile.
+         */
+        int size = ancestor.width;
+        float step = 1f / factor;
+        float originX = column * size * step - 0.5f;
+        float originY = row * size * step - 0.5f;
+        PImage tile = new PImage(size, size, PApplet.ARGB);
+        for (int y = 0; y < size; y++) {
+            float sy = Math.max(0, originY + (y + 0.5f) * step);
+            int y0 = Math.min((int) sy, size - 1);
+            int y1 = Math.min(y0 + 1, size - 1);
+            float fy = sy - (int) sy;
+            for (int x = 0; x < size; x++) {
+                float sx = Math.max(0, originX + (x + 0.5f) * step);
+                int x0 = Math.min((int) sx, size - 1);
+                int x1 = Math.min(x0 + 1, size - 1);
+                float fx = sx - (int) sx;
+                tile.pixels[y * size + x] = lerp(
+                        lerp(ancestor.pixels[y0 * size + x0], ancestor.pixels[y0 * size + x1], fx),
+                        lerp(ancestor.pixels[y1 * size + x0], ancestor.pixels[y1 * size + x1], fx), fy);
+            }
+        }
+        return tile;
+    }
+
+    private static int lerp(int c1, int c2, float t) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (c1 >>> shift) & 0xFF;
+            int b = (c2 >>> shift) & 0xFF;
+            result |= Math.round(a + (b - a) * t) << shift;
+        }
+        return result;
+    }
+
+    private void prefetch(int zoom, int fromColumn, int toColumn, int fromRow, int toRow) {
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                long key = TileCache.key(zoom, column, row);
+                if (!inRange(zoom, column, row) || cache.contains(key) || loading.containsKey(key)) continue;
+                if (prefetches.get() >= MAX_PREFETCHES) return;
+                prefetches.incrementAndGet();
+                int c = column, r = row;
+                workers.execute(() -> {
+                    try {
+                        tile(zoom, c, r);
+                    } finally {
+                        prefetches.decrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    private void readZoomRange(Connection connection) throws SQLException {
+        // from the metadata table if it has the (optional) zoom range, otherwise from the tiles
+        PreparedStatement statement = connection.prepareStatement(
+                "SELECT (SELECT value FROM metadata WHERE name = 'minzoom'), (SELECT value FROM metadata WHERE name = 'maxzoom')");
+        ResultSet result = statement.executeQuery();
+        boolean found = result.next() && result.getString(1) != null && result.getString(2) != null;
+        if (found) {
+            minZoom = Integer.parseInt(result.getString(1).trim());
+            maxZoom = Integer.parseInt(result.getString(2).trim());
+        }
+        result.close();
+        statement.close();
+        if (found) return;
+
+        statement = connection.prepareStatement("SELECT MIN(zoom_level), MAX(zoom_level) FROM tiles");
+        result = statement.executeQuery();
+        if (result.next() && result.getObject(1) != null) {
+            minZoom = result.getInt(1);
+            maxZoom = result.getInt(2);
+        }
+        result.close();
+        statement.close();
+    }
+
+    private static boolean inRange(int zoom, int column, int row) {
+        int n = 1 << zoom;
+        return column >= 0 && column < n && row >= 0 && row < n;
+    }
+
+    private static Location clamp(Location location) {
+        return new Location(Math.max(-85, Math.min(85, location.getLat())),
+                Math.max(-180, Math.min(179.999f, location.getLon())));
+    }
+
+    private static File resolve(PApplet p, String fileName) {
+        File file = new File(p.sketchPath(fileName));
+        return file.exists() ? file : new File(p.dataPath(fileName));
+    }
+}
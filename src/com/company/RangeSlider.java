@@ -0,0 +1,145 @@
+package com.company;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+
+/**
+ * Horizontal slider selecting a range [low, high] of integer values (e.g. epoch days).
+ *
+ * Drag a handle to move one end of the range, or drag the bar between the handles to shift the
+ * whole range. The sketch forwards its mouse events to press(), drag() and release().
+ */
+public class RangeSlider {
+    private static final float HANDLE_SIZE = 10;
+
+    private final float x;
+    private final float y;
+    private final float width;
+    private final int min;
+    private final int max;
+    private int low;
+    private int high;
+
+    // drag state: 0 = none, 1 = low handle, 2 = high handle, 3 = whole range
+    private int dragging;
+    private int dragStartValue;
+    private int dragStartLow;
+    private int dragStartHigh;
+
+    /*
+     * @param x, y - left end of the track
+     * @param width - length of the track in pixels
+     * @param min, max - values at the ends of the track
+     */
+    public RangeSlider(float x, float y, float width, int min, int max) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.min = min;
+        this.max = Math.max(min, max);
+        this.low = min;
+        this.high = this.max;
+    }
+
+    public void draw(PApplet p) {
+        p.pushStyle();
+        p.strokeWeight(2);
+        p.stroke(150);
+        p.line(x, y, x + width, y); // track
+        p.stroke(80);
+        p.strokeWeight(4);
+        p.line(screenX(low), y, screenX(high), y); // selected range
+        p.noStroke();
+        p.fill(dragging != 0 ? 60 : 100);
+        p.rectMode(PConstants.CENTER);
+        p.rect(screenX(low), y, HANDLE_SIZE, HANDLE_SIZE * 1.6f);
+        p.rect(screenX(high), y, HANDLE_SIZE, HANDLE_SIZE * 1.6f);
+        p.popStyle();
+    }
+
+    /*
+     * @return true if the press grabbed a handle or the range
+     */
+    public boolean press(float mx, float my) {
+        dragging = 0;
+        if (Math.abs(my - y) > HANDLE_SIZE) return false;
+        float lowX = screenX(low);
+        float highX = screenX(high);
+        if (Math.abs(mx - lowX) <= HANDLE_SIZE / 2 + 2 && Math.abs(mx - lowX) <= Math.abs(mx - highX)) {
+            dragging = 1;
+        } else if (Math.abs(mx - highX) <= HANDLE_SIZE / 2 + 2) {
+            dragging = 2;
+        } else if (mx > lowX && mx < highX) {
+            dragging = 3;
+        } else {
+            return false;
+        }
+        dragStartValue = valueAt(mx);
+        dragStartLow = low;
+        dragStartHigh = high;
+        return true;
+    }
+
+    /*
+     * @return true if the range changed
+     */
+    public boolean drag(float mx) {
+        int oldLow = low;
+        int oldHigh = high;
+        int value = valueAt(mx);
+        if (dragging == 1) {
+            low = Math.min(value, high);
+        } else if (dragging == 2) {
+            high = Math.max(value, low);
+        } else if (dragging == 3) {
+            int shift = value - dragStartValue;
+            shift = Math.max(min - dragStartLow, Math.min(max - dragStartHigh, shift));
+            low = dragStartLow + shift;
+            high = dragStartHigh + shift;
+        }
+        return low != oldLow || high != oldHigh;
+    }
+
+    public void release() {
+        dragging = 0;
+    }
+
+    public boolean isDragging() {
+        return dragging != 0;
+    }
+
+    /*
+     * Sets the range, clipped to the slider's values.
+     */
+    public void setRange(int low, int high) {
+        this.low = Math.max(min, Math.min(max, low));
+        this.high = Math.max(this.low, Math.min(max, high));
+    }
+
+    /** getters */
+    public int getLow() {
+        return low;
+    }
+
+    public int getHigh() {
+        return high;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    // helper methods
+    private float screenX(int value) {
+        return max == min ? x : x + width * (value - min) / (float) (max - min);
+    }
+
+    private int valueAt(float mx) {
+        float t = Math.max(0, Math.min(1, (mx - x) / width));
+        return min + Math.round(t * (max - min));
+    }
+}
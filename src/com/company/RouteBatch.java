@@ -0,0 +1,138 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import parsing.Mercator;
+import parsing.RouteGraph;
+import parsing.RoutePaths;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+import java.util.ArrayList;
+
+/**
+ * Map layer that draws all paths of a RoutePaths (and the airports they connect) in batches.
+ *
+ * Paths are cached in Mercator coordinates; they are projected once per zoom level into retained
+ * PShapes of LINES, so the renderer keeps every line in GPU vertex buffers and draws the whole
+ * network in a few calls. Between rebuilds, panning is a translation and zoom animations are a
+ * scale applied to the shapes. Segments are split over several shapes to keep each vertex buffer
+ * at a moderate size.
+ *
+ * It is added to a map like any MarkerManager, but holds no markers. Needs an OpenGL renderer.
+ */
+public class RouteBatch extends MarkerManager<Marker> {
+    private static final int SEGMENTS_PER_SHAPE = 1 << 14;
+
+    private RouteGraph graph;
+    private RoutePaths paths;
+    private int routeColor = 0x30FFB000;
+    private float routeWeight = 1;
+    private int airportColor = 0xFFFFFFFF;
+    private float airportWeight = 3;
+
+    private ArrayList<PShape> shapes = new ArrayList<>();
+    private PShape airports;
+    private int builtZoomLevel = Integer.MIN_VALUE;
+    private float builtScaleX;
+    private float builtScaleY;
+    private final MapProjection projection = new MapProjection(); // of the current frame
+
+    /*
+     * Sets the paths to draw; null draws nothing.
+     */
+    public void setPaths(RouteGraph graph, RoutePaths paths) {
+        this.graph = graph;
+        this.paths = paths;
+        invalidate();
+    }
+
+    public RoutePaths getPaths() {
+        return paths;
+    }
+
+    public void setRouteStyle(int color, float weight) {
+        routeColor = color;
+        routeWeight = weight;
+        invalidate();
+    }
+
+    public void setAirportStyle(int color, float weight) {
+        airportColor = color;
+        airportWeight = weight;
+        invalidate();
+    }
+
+    /*
+     * Forces the shapes to be rebuilt on the next draw.
+     */
+    public void invalidate() {
+        builtZoomLevel = Integer.MIN_VALUE;
+    }
+
+    @Override
+    public void draw() {
+        if (!bEnableDrawing || map == null || paths == null) return;
+
+        PGraphics pg = map.mapDisplay.getOuterPG();
+        if (!pg.isGL()) return; // retained shapes only
+        projection.update(map);
+        if (map.getZoomLevel() != builtZoomLevel) {
+            rebuild(pg);
+        }
+
+        pg.pushMatrix();
+        pg.translate(projection.getOriginX(), projection.getOriginY());
+        pg.scale(projection.getScaleX() / builtScaleX, projection.getScaleY() / builtScaleY); // zoom animation between levels
+        for (PShape shape : shapes) {
+            pg.shape(shape);
+        }
+        pg.shape(airports);
+        pg.popMatrix();
+    }
+
+    // helper methods
+    private void rebuild(PGraphics pg) {
+        builtZoomLevel = map.getZoomLevel();
+        builtScaleX = projection.getScaleX();
+        builtScaleY = projection.getScaleY();
+        float originX = projection.getOriginX();
+        float originY = projection.getOriginY();
+
+        // routes, projected relative to the projection's origin
+        shapes.clear();
+        PShape shape = null;
+        int segments = 0;
+        for (int p = 0; p < paths.getPathCount(); p++) {
+            for (int i = paths.getStart(p); i < paths.getEnd(p) - 1; i++) {
+                if (shape == null || segments == SEGMENTS_PER_SHAPE) {
+                    if (shape != null) shape.endShape();
+                    shape = pg.createShape();
+                    shape.beginShape(PConstants.LINES);
+                    shape.noFill();
+                    shape.stroke(routeColor);
+                    shape.strokeWeight(routeWeight);
+                    shapes.add(shape);
+                    segments = 0;
+                }
+                shape.vertex(projection.getX(paths.getX(i)) - originX, projection.getY(paths.getY(i)) - originY);
+                shape.vertex(projection.getX(paths.getX(i + 1)) - originX, projection.getY(paths.getY(i + 1)) - originY);
+                segments++;
+            }
+        }
+        if (shape != null) shape.endShape();
+
+        // airports with at least one route
+        airports = pg.createShape();
+        airports.beginShape(PConstants.POINTS);
+        airports.stroke(airportColor);
+        airports.strokeWeight(airportWeight);
+        for (int a = 0; a < graph.getAirportCount(); a++) {
+            if (graph.getOutDegree(a) + graph.getInDegree(a) == 0) continue;
+            airports.vertex(projection.getX(Mercator.lonX(graph.getLongitude(a))) - originX,
+                    projection.getY(Mercator.latY(graph.getLatitude(a))) - originY);
+        }
+        airports.endShape();
+    }
+}
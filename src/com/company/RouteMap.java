@@ -0,0 +1,241 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.providers.OpenStreetMap;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import parsing.Mercator;
+import parsing.RouteGraph;
+import parsing.RoutePaths;
+import parsing.RouteQuery;
+import processing.core.PApplet;
+
+/**
+ * Interactive map of the complete OpenFlights airport/route network
+ * (http://openflights.org/data.html, airports.dat and routes.dat):
+ *      - Every pair of connected airports is drawn as one line along its great circle;
+ *      - All lines are batched in GPU vertex buffers (see RouteBatch), so the whole network stays
+ *      visible at interactive frame rates; it doubles as a performance test for large line data;
+ *      - Press 'b' to switch to edge-bundled routes (precomputed in the background after loading),
+ *      which pull routes together along shared corridors and reduce overdraw;
+ *      - Click an airport to select it (shift-click to select several): airports reachable within
+ *      two flights are highlighted, and hovering over another airport shows the shortest route
+ *      (by distance) from the selection, with its number of flights and length.
+ */
+public class RouteMap extends PApplet {
+    private UnfoldingMap map;
+    private BackgroundLoader loader;
+    private RouteBatch routeBatch = new RouteBatch();
+    private RouteGraph routeGraph;
+    private RoutePaths greatCircles;
+    private RoutePaths bundled;
+    private boolean showBundled;
+    private RouteQuery routeQuery;
+    private float[] airportX; // Mercator coordinates of the airports
+    private float[] airportY;
+
+    // selection and query results
+    private int[] sources = new int[16];
+    private int sourceCount;
+    private int[] reachable = new int[0];
+    private int reachableCount;
+    private int hovered = -1;
+    private int[] path = new int[0];
+    private int pathLength;
+    private float pathDistance;
+
+    private final MapProjection projection = new MapProjection(); // screen projection of the current frame
+
+    // CONSTANTS
+    String AIRPORTS_FILE = "data/airports.dat";
+    String ROUTES_FILE = "data/routes.dat";
+    int BUNDLE_ITERATIONS = 10;
+    float BUNDLE_SPACING = 0.004f; // Mercator units, about 1.4 degrees of longitude
+    int BUNDLE_GRID = 512;
+    int REACHABLE_HOPS = 2;
+    float HOVER_RADIUS = 8; // pixels
+    boolean ONLINE_TILES = false; // the dark bundled tiles keep the routes readable
+
+    public static void main(String[] args) {
+        System.setProperty("http.agent", "Chrome");
+        PApplet.main("com.company.RouteMap", args);
+    }
+
+    public void setup() {
+        // set up canvas
+        size(1000, 700, OPENGL);
+
+        // set up world map; the route lines stand out best on the dark bundled tiles
+        map = MapTiles.createMap(this, 50, 50, 900, 600, ONLINE_TILES,
+                "data/blankDark-1-3.mbtiles", new OpenStreetMap.OpenStreetMapProvider());
+        map.zoomToLevel(2);
+        MapUtils.createDefaultEventDispatcher(this, map); // make map interactive
+        map.addMarkerManager(routeBatch);
+
+        // read in airports and routes and compute their great circles in the background,
+        // then precompute the bundled routes
+        loader = new BackgroundLoader(this);
+        loader.load(() -> {
+            RouteGraph graph = RouteGraph.load(this, AIRPORTS_FILE, ROUTES_FILE);
+            RoutePaths paths = RoutePaths.greatCircles(graph);
+            RouteQuery query = new RouteQuery(graph);
+            System.out.printf("Route graph: %d airports, %d routes\n", graph.getAirportCount(), graph.getRouteCount());
+            loader.publish(() -> {
+                routeGraph = graph;
+                routeQuery = query;
+                initAirports();
+            });
+            return paths;
+        }, paths -> {
+            greatCircles = paths;
+            routeBatch.setPaths(routeGraph, greatCircles);
+            loader.load(() -> greatCircles.bundle(BUNDLE_ITERATIONS, BUNDLE_SPACING, BUNDLE_GRID),
+                    bundledPaths -> bundled = bundledPaths);
+        });
+    }
+
+    public void draw() {
+        background(30);
+        map.draw();
+        if (routeQuery != null) {
+            projection.updateScreen(map);
+            drawSelection();
+        }
+        showStatus();
+    }
+
+    @Override
+    public void mouseMoved() {
+        if (routeQuery == null) return;
+        projection.updateScreen(map);
+        hovered = airportAt(mouseX, mouseY);
+        pathLength = 0;
+        if (hovered >= 0 && sourceCount > 0) {
+            // shortest route from the selection; the reachable set was copied, so it survives this query
+            pathDistance = routeQuery.shortestDistance(sources, sourceCount, hovered);
+            pathLength = routeQuery.getPath(hovered, path);
+        }
+    }
+
+    @Override
+    public void mouseClicked() {
+        if (routeQuery == null) return;
+        projection.updateScreen(map);
+        int airport = airportAt(mouseX, mouseY);
+        if (airport < 0) {
+            sourceCount = 0; // click on empty map clears the selection
+        } else if (keyPressed && keyCode == SHIFT && sourceCount < sources.length) {
+            sources[sourceCount++] = airport; // multi-source selection
+        } else {
+            sources[0] = airport;
+            sourceCount = 1;
+        }
+        pathLength = 0;
+        reachableCount = 0;
+        if (sourceCount > 0) {
+            reachableCount = routeQuery.reachableWithin(sources, sourceCount, REACHABLE_HOPS);
+            for (int i = 0; i < reachableCount; i++) {
+                reachable[i] = routeQuery.getReached(i);
+            }
+        }
+    }
+
+    @Override
+    public void keyPressed() {
+        // toggle edge bundling once it has been computed
+        if (key == 'b' && bundled != null) {
+            showBundled = !showBundled;
+            routeBatch.setPaths(routeGraph, showBundled ? bundled : greatCircles);
+        }
+    }
+
+    private void initAirports() {
+        int n = routeGraph.getAirportCount();
+        airportX = new float[n];
+        airportY = new float[n];
+        for (int a = 0; a < n; a++) {
+            airportX[a] = (float) Mercator.lonX(routeGraph.getLongitude(a));
+            airportY[a] = (float) Mercator.latY(routeGraph.getLatitude(a));
+        }
+        reachable = new int[n];
+        path = new int[n];
+    }
+
+    private int airportAt(float x, float y) {
+        /*
+        Returns the airport (with at least one route) closest to a screen position, -1 if none is
+        within HOVER_RADIUS.
+         */
+        int best = -1;
+        float bestDistance = HOVER_RADIUS * HOVER_RADIUS;
+        for (int a = 0; a < airportX.length; a++) {
+            float dx = projection.getX(airportX[a]) - x;
+            float dy = projection.getY(airportY[a]) - y;
+            float d = dx * dx + dy * dy;
+            if (d < bestDistance && routeGraph.getOutDegree(a) + routeGraph.getInDegree(a) > 0) {
+                best = a;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    private void drawSelection() {
+        // airports reachable from the selection
+        strokeWeight(5);
+        stroke(80, 220, 120);
+        beginShape(POINTS);
+        for (int i = 0; i < reachableCount; i++) {
+            vertex(projection.getX(airportX[reachable[i]]), projection.getY(airportY[reachable[i]]));
+        }
+        endShape();
+
+        // shortest route to the hovered airport, along the great circles of its flights
+        strokeWeight(3);
+        stroke(255, 60, 60);
+        noFill();
+        for (int i = 0; i + 1 < pathLength; i++) {
+            int p = greatCircles.findPath(path[i], path[i + 1]);
+            if (p < 0) continue;
+            beginShape();
+            for (int k = greatCircles.getStart(p); k < greatCircles.getEnd(p); k++) {
+                vertex(projection.getX(greatCircles.getX(k)), projection.getY(greatCircles.getY(k)));
+            }
+            endShape();
+        }
+
+        // selected airports
+        strokeWeight(9);
+        beginShape(POINTS);
+        for (int i = 0; i < sourceCount; i++) {
+            vertex(projection.getX(airportX[sources[i]]), projection.getY(airportY[sources[i]]));
+        }
+        endShape();
+        strokeWeight(1);
+        noStroke();
+
+        // info about the hovered airport
+        if (hovered >= 0) {
+            fill(255);
+            textAlign(LEFT, TOP);
+            String info = routeGraph.getCode(hovered) + " - " + routeGraph.getName(hovered);
+            if (pathLength > 1) {
+                info += "\n" + (pathLength - 1) + " flights, " + round(pathDistance) + " km";
+            } else if (sourceCount > 0 && pathLength == 0) {
+                info += "\nnot reachable";
+            }
+            text(info, 50, 655);
+        }
+    }
+
+    private void showStatus() {
+        fill(255);
+        textAlign(LEFT, TOP);
+        if (routeGraph == null || greatCircles == null) {
+            text("Loading routes...", 50, 15);
+            return;
+        }
+        String bundling = bundled == null ? "computing bundles..." : (showBundled ? "bundled ('b')" : "great circles ('b')");
+        text(routeGraph.getAirportCount() + " airports, " + routeGraph.getRouteCount() + " routes, "
+                + greatCircles.getPathCount() + " lines - " + bundling + " - " + round(frameRate) + " fps", 50, 15);
+    }
+}
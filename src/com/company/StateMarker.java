@@ -1,31 +1,35 @@
 package com.company;
 
+import de.fhpotsdam.unfolding.UnfoldingMap;
 import de.fhpotsdam.unfolding.data.PointFeature;
 import processing.core.PConstants;
 import processing.core.PGraphics;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
 
 public class StateMarker extends CommonMarker {
-    private final int nShooting;
+    private int nShooting;
 
     // constructor
-    public StateMarker(PointFeature feature, HashMap<String, ArrayList<Integer>> statMap) {
+    public StateMarker(PointFeature feature, int nShooting, int nKilled, int nInjured) {
         super(feature.location, feature.properties);
-        String state = feature.getProperty("state").toString();
-        this.nShooting = statMap.get(state).get(0);
-        this.nKilled = statMap.get(state).get(1);
-        this.nInjured = statMap.get(state).get(2);
+        this.nShooting = nShooting;
+        this.nKilled = nKilled;
+        this.nInjured = nInjured;
+    }
+
+    /*
+     * Updates the counts, e.g. for another date range; a state with no shooting is not drawn.
+     */
+    public void setCounts(int nShooting, int nKilled, int nInjured) {
+        this.nShooting = nShooting;
+        this.nKilled = nKilled;
+        this.nInjured = nInjured;
     }
 
     /** Draw marker on the map */
     @Override
     public void drawMarker(PGraphics pg, float x, float y) {
-        if (this.nShooting == 0) { // hide states with no shooting
-            setHidden(true);
-        } else {
+        if (this.nShooting > 0) { // states with no shooting are not drawn
             pg.pushStyle();
             pg.strokeWeight(0); // border thickness
             determineColorAndSize(pg, x, y); // color- and size-coded depending on the number of shootings in a given state
@@ -38,6 +42,11 @@ public class StateMarker extends CommonMarker {
         }
     }
 
+    @Override
+    public boolean isInside(UnfoldingMap map, float checkX, float checkY) {
+        return this.nShooting > 0 && super.isInside(map, checkX, checkY); // not drawn, so not hit either
+    }
+
     @Override
     public String printTitle() {
         String info;
@@ -61,35 +70,44 @@ public class StateMarker extends CommonMarker {
         return getStringProperty("state");
     }
 
-    // helper methods
-    private void determineColorAndSize(PGraphics pg, float x, float y) {
-        /* determine the size of the marker and fill its color
-        according to the number of shootings in a given state
-         */
-        float SMALL_RADIUS = 17;
-        float LARGE_RADIUS = 25;
-        float MED_RADIUS = (SMALL_RADIUS + LARGE_RADIUS) / 2f;
-        float BUFFER = 10;
-        int TRANSPARENCY = 100;
+    public int getShootings() {
+        return this.nShooting;
+    }
+
+    /** size and color coding, shared with StateMarkerBatch */
+    static final float SMALL_RADIUS = 17;
+    static final float LARGE_RADIUS = 25;
+    static final float MED_RADIUS = (SMALL_RADIUS + LARGE_RADIUS) / 2f;
+    static final float BUFFER = 10;
+    static final int TRANSPARENCY = 100;
+    static final int SMALL_NUMBER_SHOOTING_THRESHOLD = 10;
+    static final int LARGE_NUMBER_SHOOTING_THRESHOLD = 30;
 
-        int SMALL_NUMBER_SHOOTING_THRESHOLD = 10;
-        int LARGE_NUMBER_SHOOTING_THRESHOLD = 30;
+    // color bands: 0 = few shootings (green), 1 = medium (yellow), 2 = many (red)
+    static final int BAND_COUNT = 3;
+    static final float[] BAND_RADIUS = {SMALL_RADIUS, MED_RADIUS, LARGE_RADIUS};
+    static final int[][] BAND_RGB = {{120,186,73}, {237,193,50}, {222,114,102}}; // green-ish, yellow-ish, red-ish
 
+    int getBand() {
         if (this.nShooting < SMALL_NUMBER_SHOOTING_THRESHOLD) {
-            pg.fill(120,186,73); // green-ish
-            pg.ellipse(x, y, SMALL_RADIUS, SMALL_RADIUS);
-            pg.fill(120,186,73,TRANSPARENCY);
-            pg.ellipse(x, y, SMALL_RADIUS+BUFFER, SMALL_RADIUS+BUFFER);
+            return 0;
         } else if (this.nShooting > LARGE_NUMBER_SHOOTING_THRESHOLD) {
-            pg.fill(222,114,102); // red-ish
-            pg.ellipse(x, y, LARGE_RADIUS, LARGE_RADIUS);
-            pg.fill(222,114,102,TRANSPARENCY); // red-ish
-            pg.ellipse(x, y, LARGE_RADIUS+BUFFER, LARGE_RADIUS+BUFFER);
-        } else {
-            pg.fill(237,193,50); // yellow-ish
-            pg.ellipse(x, y, MED_RADIUS, MED_RADIUS);
-            pg.fill(237,193,50,TRANSPARENCY); // yellow-ish
-            pg.ellipse(x, y, MED_RADIUS+BUFFER, MED_RADIUS+BUFFER);
+            return 2;
         }
+        return 1;
+    }
+
+    // helper methods
+    private void determineColorAndSize(PGraphics pg, float x, float y) {
+        /* determine the size of the marker and fill its color
+        according to the number of shootings in a given state
+         */
+        int band = getBand();
+        int[] rgb = BAND_RGB[band];
+        float radius = BAND_RADIUS[band];
+        pg.fill(rgb[0], rgb[1], rgb[2]);
+        pg.ellipse(x, y, radius, radius);
+        pg.fill(rgb[0], rgb[1], rgb[2], TRANSPARENCY);
+        pg.ellipse(x, y, radius+BUFFER, radius+BUFFER);
     }
 }
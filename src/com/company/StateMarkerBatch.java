@@ -0,0 +1,166 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+import java.util.List;
+
+/**
+ * MarkerManager that draws StateMarker bubbles in batches.
+ *
+ * All bubbles of a color band are tessellated into one retained PShape (one for the opaque
+ * bubbles and one for their translucent halos), so the renderer draws every band in a single
+ * call instead of issuing fill/ellipse state changes per marker. Geometry is kept relative to a
+ * reference location, so panning only changes a translation; shapes are rebuilt only when the
+ * zoom or the visible set of markers changes.
+ *
+ * Renderers without retained shapes (e.g. JAVA2D) fall back to drawing each marker.
+ */
+public class StateMarkerBatch extends MarkerManager<Marker> {
+    private static final Location REFERENCE = new Location(0, 0);
+    private static final int SEGMENTS = 24; // triangles per bubble
+
+    private PShape[] bubbles; // per band
+    private PShape[] halos; // per band
+    private boolean[] builtHidden;
+    private float builtZoom = Float.NaN;
+
+    // labels relative to the reference location
+    private float[] labelX = new float[0];
+    private float[] labelY = new float[0];
+    private String[] labels = new String[0]; // formatted once per rebuild
+    private int labelCount;
+
+    // constructors
+    public StateMarkerBatch() {
+        super();
+    }
+
+    public StateMarkerBatch(List<Marker> markers) {
+        super(markers);
+    }
+
+    /*
+     * Forces the shapes to be rebuilt, e.g. after marker data changed.
+     */
+    public void invalidate() {
+        builtZoom = Float.NaN;
+    }
+
+    @Override
+    public void draw() {
+        if (!bEnableDrawing || map == null || markers == null) return;
+
+        PGraphics pg = map.mapDisplay.getOuterPG();
+        if (!pg.isGL()) {
+            for (Marker m : markers) {
+                m.draw(map);
+            }
+            return;
+        }
+
+        if (needsRebuild()) {
+            rebuild(pg);
+        }
+
+        float[] ref = map.mapDisplay.getObjectFromLocation(REFERENCE);
+        pg.pushMatrix();
+        pg.pushStyle();
+        pg.translate(ref[0], ref[1]);
+        for (int band = 0; band < StateMarker.BAND_COUNT; band++) {
+            pg.shape(bubbles[band]);
+            pg.shape(halos[band]);
+        }
+
+        // display the number of shootings in each state
+        pg.fill(10);
+        pg.textAlign(PConstants.CENTER, PConstants.CENTER);
+        for (int i = 0; i < labelCount; i++) {
+            pg.text(labels[i], labelX[i], labelY[i]);
+        }
+        pg.popStyle();
+        pg.popMatrix();
+    }
+
+    // helper methods
+    private boolean needsRebuild() {
+        if (bubbles == null || map.getZoom() != builtZoom || builtHidden.length != markers.size()) {
+            return true;
+        }
+        for (int i = 0; i < markers.size(); i++) {
+            if (markers.get(i).isHidden() != builtHidden[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebuild(PGraphics pg) {
+        int n = markers.size();
+        builtZoom = map.getZoom();
+        builtHidden = new boolean[n];
+        if (labels.length < n) {
+            labels = new String[n];
+            labelX = new float[n];
+            labelY = new float[n];
+        }
+        labelCount = 0;
+
+        bubbles = new PShape[StateMarker.BAND_COUNT];
+        halos = new PShape[StateMarker.BAND_COUNT];
+        for (int band = 0; band < StateMarker.BAND_COUNT; band++) {
+            int[] rgb = StateMarker.BAND_RGB[band];
+            bubbles[band] = beginBand(pg, pg.color(rgb[0], rgb[1], rgb[2]));
+            halos[band] = beginBand(pg, pg.color(rgb[0], rgb[1], rgb[2], StateMarker.TRANSPARENCY));
+        }
+
+        float[] ref = map.mapDisplay.getObjectFromLocation(REFERENCE);
+        for (int i = 0; i < n; i++) {
+            Marker marker = markers.get(i);
+            builtHidden[i] = marker.isHidden();
+            if (marker.isHidden() || !(marker instanceof StateMarker)) continue;
+            StateMarker m = (StateMarker) marker;
+            if (m.getShootings() == 0) continue; // states with no shooting are not drawn
+
+            float[] xy = map.mapDisplay.getObjectFromLocation(m.getLocation());
+            float x = xy[0] - ref[0];
+            float y = xy[1] - ref[1];
+            int band = m.getBand();
+            float diameter = StateMarker.BAND_RADIUS[band];
+            addCircle(bubbles[band], x, y, diameter / 2);
+            addCircle(halos[band], x, y, (diameter + StateMarker.BUFFER) / 2);
+
+            labels[labelCount] = String.valueOf(m.getShootings());
+            labelX[labelCount] = x;
+            labelY[labelCount] = y;
+            labelCount++;
+        }
+
+        for (int band = 0; band < StateMarker.BAND_COUNT; band++) {
+            bubbles[band].endShape();
+            halos[band].endShape();
+        }
+    }
+
+    private static PShape beginBand(PGraphics pg, int color) {
+        PShape shape = pg.createShape();
+        shape.beginShape(PConstants.TRIANGLES);
+        shape.noStroke();
+        shape.fill(color);
+        return shape;
+    }
+
+    private static void addCircle(PShape shape, float x, float y, float r) {
+        for (int s = 0; s < SEGMENTS; s++) {
+            float a0 = PConstants.TWO_PI * s / SEGMENTS;
+            float a1 = PConstants.TWO_PI * (s + 1) / SEGMENTS;
+            shape.vertex(x, y);
+            shape.vertex(x + r * (float) Math.cos(a0), y + r * (float) Math.sin(a0));
+            shape.vertex(x + r * (float) Math.cos(a1), y + r * (float) Math.sin(a1));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.company;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import processing.core.PImage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of decoded map tiles, bounded by the memory of their pixels.
+ *
+ * Tiles are keyed by zoom level, column and row packed into a long. The same PImage is returned
+ * for a tile as long as it stays cached, so the renderer also keeps reusing the texture it made
+ * for it. Safe to use from several threads.
+ */
+public class TileCache {
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<Long, PImage> tiles = new LinkedHashMap<>(256, 0.75f, true); // access order
+
+    /*
+     * @param maxBytes - memory budget for the pixels of all cached tiles
+     */
+    public TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized PImage get(long key) {
+        return tiles.get(key);
+    }
+
+    public synchronized boolean contains(long key) {
+        return tiles.containsKey(key);
+    }
+
+    /*
+     * Adds a tile, evicting the least recently used tiles beyond the memory budget.
+     */
+    public synchronized void put(long key, PImage tile) {
+        PImage old = tiles.put(key, tile);
+        if (old != null) bytes -= sizeOf(old);
+        bytes += sizeOf(tile);
+
+        Iterator<Map.Entry<Long, PImage>> eldest = tiles.entrySet().iterator();
+        while (bytes > maxBytes && tiles.size() > 1) {
+            PImage evicted = eldest.next().getValue();
+            eldest.remove();
+            bytes -= sizeOf(evicted);
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /** getters */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    /*
+     * Packs a tile position into a cache key.
+     */
+    public static long key(int zoom, int column, int row) {
+        return ((long) zoom << 56) | ((long) (column & 0x0FFFFFFF) << 28) | (row & 0x0FFFFFFF);
+    }
+
+    public static long key(Coordinate coordinate) {
+        return key((int) coordinate.zoom, (int) coordinate.column, (int) coordinate.row);
+    }
+
+    // helper methods
+    private static long sizeOf(PImage tile) {
+        return (long) tile.width * tile.height * 4;
+    }
+}
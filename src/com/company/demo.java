@@ -13,8 +13,9 @@ public class demo extends PApplet {
         // set up canvas
         size(700,600, OPENGL);
 
-        // set up map
-        map = new UnfoldingMap(this, 50, 50, 600, 500, new OpenStreetMap.OpenStreetMapProvider());
+        // set up map ("online" argument for OpenStreetMap tiles)
+        map = MapTiles.createMap(this, 50, 50, 600, 500, false,
+                "data/blankLight-1-3.mbtiles", new OpenStreetMap.OpenStreetMapProvider());
         map.zoomToLevel(2);
         MapUtils.createDefaultEventDispatcher(this, map); // make map interactive
     }
@@ -26,7 +27,7 @@ public class demo extends PApplet {
 
     public static void main(String[] args) {
         System.setProperty("http.agent", "Chrome");
-        PApplet.main("com.company.demo");
+        PApplet.main("com.company.demo", args);
 
     }
 }
@@ -0,0 +1,281 @@
+package parsing;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical point clustering precomputed for every zoom level (in the style of supercluster).
+ *
+ * Points are projected to Web Mercator and, from the highest zoom level down, every point or
+ * cluster of the level above is merged with its unclustered neighbours within a fixed pixel
+ * radius. Each cluster keeps:
+ *      - its weighted centroid and number of points;
+ *      - the sum and the max of every value channel (e.g. killed/injured, magnitude);
+ *      - its parent cluster one level up, so it can be expanded when the user zooms in.
+ *
+ * Levels minZoom..maxZoom hold clusters; level maxZoom + 1 holds the input points themselves.
+ */
+public class ClusterIndex {
+    private final int minZoom;
+    private final int maxZoom;
+    private final int channels;
+    private final Level[] levels; // levels[z - minZoom]
+
+    /*
+     * @param lat, lon - point locations
+     * @param values - values[channel][point] aggregated per cluster; may be empty
+     * @param minZoom, maxZoom - zoom levels to cluster at
+     * @param radius - cluster radius in pixels (at 256 pixel tiles)
+     */
+    public ClusterIndex(double[] lat, double[] lon, float[][] values, int minZoom, int maxZoom, float radius) {
+        if (lat.length != lon.length) {
+            throw new IllegalArgumentException("lat and lon have different lengths");
+        }
+        for (float[] channel : values) {
+            if (channel.length != lat.length) {
+                throw new IllegalArgumentException("value channel length does not match number of points");
+            }
+        }
+        if (minZoom > maxZoom) {
+            throw new IllegalArgumentException("minZoom > maxZoom");
+        }
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.channels = values.length;
+        this.levels = new Level[maxZoom - minZoom + 2];
+
+        // input points form the level above maxZoom
+        int n = lat.length;
+        Level points = new Level(n, channels);
+        for (int i = 0; i < n; i++) {
+            points.x[i] = Mercator.lonX(lon[i]);
+            points.y[i] = Mercator.latY(lat[i]);
+            points.count[i] = 1;
+            points.point[i] = i;
+            for (int c = 0; c < channels; c++) {
+                points.sum[c][i] = values[c][i];
+                points.max[c][i] = values[c][i];
+            }
+        }
+        points.size = n;
+        levels[levels.length - 1] = points;
+
+        for (int z = maxZoom; z >= minZoom; z--) {
+            levels[z - minZoom] = cluster(levels[z - minZoom + 1], radius / (256.0 * Math.pow(2, z)));
+        }
+    }
+
+    /** level lookups; zoom is clamped to [minZoom, maxZoom + 1] */
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public int getClusterCount(int zoom) {
+        return level(zoom).size;
+    }
+
+    public double getLatitude(int zoom, int cluster) {
+        return Mercator.yLat(level(zoom).y[cluster]);
+    }
+
+    public double getLongitude(int zoom, int cluster) {
+        return Mercator.xLon(level(zoom).x[cluster]);
+    }
+
+    public int getPointCount(int zoom, int cluster) {
+        return level(zoom).count[cluster];
+    }
+
+    /*
+     * @return index of the input point if the cluster holds a single point, -1 otherwise
+     */
+    public int getPoint(int zoom, int cluster) {
+        return level(zoom).point[cluster];
+    }
+
+    public float getSum(int zoom, int cluster, int channel) {
+        return level(zoom).sum[channel][cluster];
+    }
+
+    public float getMax(int zoom, int cluster, int channel) {
+        return level(zoom).max[channel][cluster];
+    }
+
+    /*
+     * @return cluster at zoom - 1 that this cluster was merged into, -1 at minZoom
+     */
+    public int getParent(int zoom, int cluster) {
+        Level level = level(zoom);
+        return level.parent == null ? -1 : level.parent[cluster];
+    }
+
+    /*
+     * Clamps a map zoom level to the range covered by this index.
+     */
+    public int clampZoom(int zoom) {
+        return Math.max(minZoom, Math.min(maxZoom + 1, zoom));
+    }
+
+    // helper methods
+    private Level level(int zoom) {
+        return levels[clampZoom(zoom) - minZoom];
+    }
+
+    private Level cluster(Level below, double r) {
+        int n = below.size;
+        Level level = new Level(n, channels);
+        below.parent = new int[n];
+        Arrays.fill(below.parent, -1);
+
+        // sort points of the level below by grid cell of size r
+        long[] keys = new long[n];
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = cellKey((int) (below.x[i] / r), (int) (below.y[i] / r));
+            ids[i] = i;
+        }
+        sort(keys, ids, 0, n - 1);
+
+        double r2 = r * r;
+        for (int i = 0; i < n; i++) {
+            if (below.parent[i] >= 0) continue;
+            int id = level.size++;
+            below.parent[i] = id;
+
+            double wx = below.x[i] * below.count[i];
+            double wy = below.y[i] * below.count[i];
+            int count = below.count[i];
+            for (int c = 0; c < channels; c++) {
+                level.sum[c][id] = below.sum[c][i];
+                level.max[c][id] = below.max[c][i];
+            }
+
+            // merge unclustered neighbours within r
+            int cx = (int) (below.x[i] / r);
+            int cy = (int) (below.y[i] / r);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if (cx + dx < 0 || cy + dy < 0) continue;
+                    long key = cellKey(cx + dx, cy + dy);
+                    for (int k = lowerBound(keys, key); k < n && keys[k] == key; k++) {
+                        int j = ids[k];
+                        if (below.parent[j] >= 0) continue;
+                        double ddx = below.x[j] - below.x[i];
+                        double ddy = below.y[j] - below.y[i];
+                        if (ddx * ddx + ddy * ddy > r2) continue;
+                        below.parent[j] = id;
+                        wx += below.x[j] * below.count[j];
+                        wy += below.y[j] * below.count[j];
+                        count += below.count[j];
+                        for (int c = 0; c < channels; c++) {
+                            level.sum[c][id] += below.sum[c][j];
+                            level.max[c][id] = Math.max(level.max[c][id], below.max[c][j]);
+                        }
+                    }
+                }
+            }
+
+            level.x[id] = wx / count;
+            level.y[id] = wy / count;
+            level.count[id] = count;
+            level.point[id] = count == 1 ? below.point[i] : -1;
+        }
+        level.trim();
+        return level;
+    }
+
+    private static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /*
+     * Sorts keys ascending and applies the same permutation to ids (stable for equal keys is not needed).
+     */
+    private static void sort(long[] keys, int[] ids, int lo, int hi) {
+        while (hi - lo > 16) {
+            long pivot = keys[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    swap(keys, ids, i++, j--);
+                }
+            }
+            // recurse into the smaller half, loop on the larger one
+            if (j - lo < hi - i) {
+                sort(keys, ids, lo, j);
+                lo = i;
+            } else {
+                sort(keys, ids, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && keys[j - 1] > keys[j]; j--) {
+                swap(keys, ids, j, j - 1);
+            }
+        }
+    }
+
+    private static void swap(long[] keys, int[] ids, int i, int j) {
+        long k = keys[i];
+        keys[i] = keys[j];
+        keys[j] = k;
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+    /*
+     * Clusters (or input points) of one zoom level in struct-of-arrays form.
+     */
+    private static class Level {
+        int size;
+        double[] x;
+        double[] y;
+        int[] count;
+        int[] point;
+        float[][] sum;
+        float[][] max;
+        int[] parent;
+
+        Level(int capacity, int channels) {
+            x = new double[capacity];
+            y = new double[capacity];
+            count = new int[capacity];
+            point = new int[capacity];
+            sum = new float[channels][capacity];
+            max = new float[channels][capacity];
+        }
+
+        void trim() {
+            x = Arrays.copyOf(x, size);
+            y = Arrays.copyOf(y, size);
+            count = Arrays.copyOf(count, size);
+            point = Arrays.copyOf(point, size);
+            for (int c = 0; c < sum.length; c++) {
+                sum[c] = Arrays.copyOf(sum[c], size);
+                max[c] = Arrays.copyOf(max[c], size);
+            }
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package parsing;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints (e.g. table rows), laid out like a Roaring bitmap.
+ *
+ * Values are split by their high 16 bits into chunks of 65536. Each non-empty chunk keeps the low
+ * 16 bits of its values in a container picked by density: a sorted char array while it holds at
+ * most 4096 values (2 bytes per value), a bitset of 1024 words above that (8 KB, however full).
+ * Sparse and dense sets are both compact, and and() / or() go chunk by chunk with a routine for
+ * each pair of container kinds (merging arrays, probing a bitset, combining words), so the cost
+ * of an AND follows the size of the smaller set rather than the range of values.
+ *
+ * Bitmaps are filled with add(), fastest in ascending order; and() and or() return new bitmaps
+ * and leave their operands unchanged.
+ */
+public class CompressedBitmap {
+    private static final int ARRAY_MAX = 4096; // containers with more values are bitsets
+    private static final int BITSET_WORDS = 1024;
+
+    private char[] keys; // high 16 bits of each container, ascending
+    private Object[] containers; // char[] of low 16 bits, ascending, or long[BITSET_WORDS]
+    private int[] cardinalities;
+    private int size; // number of containers
+
+    public CompressedBitmap() {
+        this(4);
+    }
+
+    private CompressedBitmap(int capacity) {
+        capacity = Math.max(1, capacity);
+        keys = new char[capacity];
+        containers = new Object[capacity];
+        cardinalities = new int[capacity];
+    }
+
+    public void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        int i = findKey(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, high, new char[4], 0);
+        }
+
+        int n = cardinalities[i];
+        if (containers[i] instanceof long[]) {
+            long[] bits = (long[]) containers[i];
+            if ((bits[low >>> 6] & 1L << low) == 0) {
+                bits[low >>> 6] |= 1L << low;
+                cardinalities[i] = n + 1;
+            }
+            return;
+        }
+        char[] array = (char[]) containers[i];
+        int j = n == 0 || array[n - 1] < low ? -n - 1 : Arrays.binarySearch(array, 0, n, low); // appending is the common case
+        if (j >= 0) return;
+        j = -j - 1;
+        if (n == ARRAY_MAX) {
+            long[] bits = toBitset(array, n);
+            bits[low >>> 6] |= 1L << low;
+            containers[i] = bits;
+        } else {
+            if (n == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, 2 * n));
+                containers[i] = array;
+            }
+            System.arraycopy(array, j, array, j + 1, n - j);
+            array[j] = low;
+        }
+        cardinalities[i] = n + 1;
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) return false;
+        int i = findKey((char) (value >>> 16));
+        if (i < 0) return false;
+        char low = (char) value;
+        if (containers[i] instanceof long[]) {
+            return (((long[]) containers[i])[low >>> 6] & 1L << low) != 0;
+        }
+        return Arrays.binarySearch((char[]) containers[i], 0, cardinalities[i], low) >= 0;
+    }
+
+    /*
+     * @return bitmap of the values in both this bitmap and other
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap(Math.min(size, other.size));
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object a = containers[i];
+                Object b = other.containers[j];
+                if (a instanceof long[] && b instanceof long[]) {
+                    result.appendBitsetAndAll(keys[i], new Object[] {a, b});
+                } else if (a instanceof long[]) {
+                    result.appendArrayAndBitset(keys[i], (char[]) b, other.cardinalities[j], (long[]) a);
+                } else if (b instanceof long[]) {
+                    result.appendArrayAndBitset(keys[i], (char[]) a, cardinalities[i], (long[]) b);
+                } else {
+                    result.appendArrayAnd(keys[i], (char[]) a, cardinalities[i], (char[]) b, other.cardinalities[j]);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Intersection of several bitmaps in one pass over their common chunks. Where all containers
+     * of a chunk are bitsets they are ANDed word by word before any value is extracted; otherwise
+     * the smallest array is probed against the others. No intermediate bitmaps are built, so this is
+     * faster than chaining and() when the operands are large but their intersection is small.
+     *
+     * @return new bitmap of the values in every bitmap
+     */
+    public static CompressedBitmap and(CompressedBitmap... bitmaps) {
+        if (bitmaps.length == 0) return new CompressedBitmap();
+        CompressedBitmap fewest = bitmaps[0];
+        for (CompressedBitmap b : bitmaps) {
+            if (b.size < fewest.size) fewest = b;
+        }
+
+        CompressedBitmap result = new CompressedBitmap(fewest.size);
+        int[] at = new int[bitmaps.length]; // container of each bitmap for the current chunk; keys only increase
+        Object[] chunk = new Object[bitmaps.length];
+        int[] chunkCardinality = new int[bitmaps.length];
+        chunks:
+        for (int i = 0; i < fewest.size; i++) {
+            char key = fewest.keys[i];
+            int smallestArray = -1;
+            for (int b = 0; b < bitmaps.length; b++) {
+                CompressedBitmap bitmap = bitmaps[b];
+                int k = at[b];
+                while (k < bitmap.size && bitmap.keys[k] < key) k++;
+                at[b] = k;
+                if (k == bitmap.size || bitmap.keys[k] != key) continue chunks; // chunk empty in this bitmap
+                chunk[b] = bitmap.containers[k];
+                chunkCardinality[b] = bitmap.cardinalities[k];
+                if (chunk[b] instanceof char[]
+                        && (smallestArray < 0 || chunkCardinality[b] < chunkCardinality[smallestArray])) {
+                    smallestArray = b;
+                }
+            }
+            if (smallestArray >= 0) {
+                result.appendArrayAndAll(key, smallestArray, chunk, chunkCardinality);
+            } else {
+                result.appendBitsetAndAll(key, chunk);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * @return bitmap of the values in this bitmap, other, or both
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap(size + other.size);
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || i < size && keys[i] < other.keys[j]) {
+                result.appendCopy(keys[i], containers[i], cardinalities[i]);
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.appendCopy(other.keys[j], other.containers[j], other.cardinalities[j]);
+                j++;
+            } else {
+                Object a = containers[i];
+                Object b = other.containers[j];
+                if (a instanceof long[] && b instanceof long[]) {
+                    result.appendBitsetOr(keys[i], (long[]) a, (long[]) b);
+                } else if (a instanceof long[]) {
+                    result.appendArrayOrBitset(keys[i], (char[]) b, other.cardinalities[j], (long[]) a, cardinalities[i]);
+                } else if (b instanceof long[]) {
+                    result.appendArrayOrBitset(keys[i], (char[]) a, cardinalities[i], (long[]) b, other.cardinalities[j]);
+                } else {
+                    result.appendArrayOr(keys[i], (char[]) a, cardinalities[i], (char[]) b, other.cardinalities[j]);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public CompressedBitmap copy() {
+        CompressedBitmap copy = new CompressedBitmap(size);
+        for (int i = 0; i < size; i++) {
+            copy.appendCopy(keys[i], containers[i], cardinalities[i]);
+        }
+        return copy;
+    }
+
+    /*
+     * Calls an action with every value, in ascending order.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            int high = keys[i] << 16;
+            if (containers[i] instanceof long[]) {
+                long[] bits = (long[]) containers[i];
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        action.accept(high | w << 6 | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] array = (char[]) containers[i];
+                for (int k = 0; k < cardinalities[i]; k++) {
+                    action.accept(high | array[k]);
+                }
+            }
+        }
+    }
+
+    public int[] toArray() {
+        int[] values = new int[getCardinality()];
+        int[] n = new int[1];
+        forEach(v -> values[n[0]++] = v);
+        return values;
+    }
+
+    /** getters */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += cardinalities[i];
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0; // containers are never empty
+    }
+
+    /*
+     * @return approximate memory taken by the containers, in bytes
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i] instanceof long[] ? 8 * BITSET_WORDS : 2 * ((char[]) containers[i]).length;
+        }
+        return bytes;
+    }
+
+    // helper methods
+    private int findKey(char high) {
+        if (size > 0 && keys[size - 1] == high) return size - 1; // values are mostly added in order
+        if (size > 0 && keys[size - 1] < high) return -size - 1;
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insertContainer(int i, char key, Object container, int cardinality) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            containers = Arrays.copyOf(containers, 2 * size);
+            cardinalities = Arrays.copyOf(cardinalities, 2 * size);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        System.arraycopy(cardinalities, i, cardinalities, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        cardinalities[i] = cardinality;
+        size++;
+    }
+
+    private void append(char key, Object container, int cardinality) {
+        /*
+        Appends a container after all others; empty ones are dropped.
+         */
+        if (cardinality == 0) return;
+        insertContainer(size, key, container, cardinality);
+    }
+
+    private void appendCopy(char key, Object container, int cardinality) {
+        append(key, container instanceof long[] ? ((long[]) container).clone()
+                : Arrays.copyOf((char[]) container, cardinality), cardinality);
+    }
+
+    private void appendArrayAnd(char key, char[] a, int na, char[] b, int nb) {
+        char[] out = new char[Math.min(na, nb)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < na && j < nb) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        append(key, out, n);
+    }
+
+    private void appendArrayAndBitset(char key, char[] a, int na, long[] bits) {
+        char[] out = new char[na];
+        int n = 0;
+        for (int i = 0; i < na; i++) {
+            if ((bits[a[i] >>> 6] & 1L << a[i]) != 0) {
+                out[n++] = a[i];
+            }
+        }
+        append(key, out, n);
+    }
+
+    private void appendArrayAndAll(char key, int probe, Object[] chunk, int[] chunkCardinality) {
+        /*
+        Keeps the values of array chunk[probe] found in every other container; arrays are walked
+        with a cursor each, since the probed values only increase.
+         */
+        char[] values = (char[]) chunk[probe];
+        char[] out = new char[chunkCardinality[probe]];
+        int[] cursor = new int[chunk.length];
+        int n = 0;
+        values:
+        for (int i = 0; i < chunkCardinality[probe]; i++) {
+            char v = values[i];
+            for (int b = 0; b < chunk.length; b++) {
+                if (b == probe) continue;
+                if (chunk[b] instanceof long[]) {
+                    if ((((long[]) chunk[b])[v >>> 6] & 1L << v) == 0) continue values;
+                } else {
+                    char[] array = (char[]) chunk[b];
+                    int c = cursor[b];
+                    while (c < chunkCardinality[b] && array[c] < v) c++;
+                    cursor[b] = c;
+                    if (c == chunkCardinality[b] || array[c] != v) continue values;
+                }
+            }
+            out[n++] = v;
+        }
+        append(key, out, n);
+    }
+
+    private void appendBitsetAndAll(char key, Object[] chunk) {
+        long[] words = ((long[]) chunk[0]).clone();
+        for (int b = 1; b < chunk.length; b++) {
+            long[] bits = (long[]) chunk[b];
+            for (int w = 0; w < BITSET_WORDS; w++) {
+                words[w] &= bits[w];
+            }
+        }
+        int n = 0;
+        for (int w = 0; w < BITSET_WORDS; w++) {
+            n += Long.bitCount(words[w]);
+        }
+        if (n > ARRAY_MAX) {
+            append(key, words, n);
+        } else if (n > 0) {
+            char[] out = new char[n];
+            int k = 0;
+            for (int w = 0; w < BITSET_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    out[k++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            append(key, out, n);
+        }
+    }
+
+    private void appendArrayOr(char key, char[] a, int na, char[] b, int nb) {
+        char[] out = new char[na + nb];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < na || j < nb) {
+            if (j == nb || i < na && a[i] < b[j]) {
+                out[n++] = a[i++];
+            } else if (i == na || a[i] > b[j]) {
+                out[n++] = b[j++];
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        append(key, n > ARRAY_MAX ? toBitset(out, n) : out, n);
+    }
+
+    private void appendArrayOrBitset(char key, char[] a, int na, long[] bits, int nBits) {
+        long[] out = bits.clone();
+        int n = nBits;
+        for (int i = 0; i < na; i++) {
+            long mask = 1L << a[i];
+            if ((out[a[i] >>> 6] & mask) == 0) {
+                out[a[i] >>> 6] |= mask;
+                n++;
+            }
+        }
+        append(key, out, n);
+    }
+
+    private void appendBitsetOr(char key, long[] a, long[] b) {
+        long[] out = new long[BITSET_WORDS];
+        int n = 0;
+        for (int w = 0; w < BITSET_WORDS; w++) {
+            out[w] = a[w] | b[w];
+            n += Long.bitCount(out[w]);
+        }
+        append(key, out, n);
+    }
+
+    private static long[] toBitset(char[] array, int n) {
+        long[] bits = new long[BITSET_WORDS];
+        for (int i = 0; i < n; i++) {
+            bits[array[i] >>> 6] |= 1L << array[i];
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,426 @@
+package parsing;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.MultiFeature;
+import de.fhpotsdam.unfolding.data.ShapeFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spatial index over country polygons (e.g. countries.geo.json loaded with GeoJSONReader).
+ *
+ * Every country is a feature made of polygons, every polygon of an exterior ring and its holes.
+ * Rings are stored in Web Mercator coordinates (Mercator.lonX/latY) in flat arrays, and:
+ *      - the bounding boxes of all polygons are packed into a static R-tree (sort-tile-recursive),
+ *      so a point lookup only runs the point-in-polygon test on the few polygons whose box
+ *      contains the point;
+ *      - for every zoom level a copy simplified to about half a pixel (Douglas-Peucker) is built on
+ *      first use and cached, so rendering cost follows what is visible at that zoom level rather
+ *      than the vertex count of the source data.
+ */
+public class CountryIndex {
+    private static final int NODE_CAPACITY = 8;
+    private static final float TOLERANCE = 0.5f; // pixels of simplification at 256 pixel tiles
+    private static final int MAX_LEVEL = 12; // above this zoom level the full geometry is used
+
+    // countries
+    private final int countryCount;
+    private final String[] countryId;
+    private final String[] countryName;
+
+    // polygons: rings [polygonRingStart[p], polygonRingStart[p+1]), the first one exterior
+    private final int polygonCount;
+    private final int[] polygonCountry;
+    private final int[] polygonRingStart;
+    private final float[] minX, minY, maxX, maxY; // bounding box per polygon
+
+    // full geometry
+    private final Geometry geometry;
+    private final Geometry[] levels = new Geometry[MAX_LEVEL + 1];
+
+    // packed R-tree: node n covers children [nodeStart[n], nodeStart[n+1]) of the level below;
+    // leaves point into polygons; the root is the last node
+    private float[] nodeMinX, nodeMinY, nodeMaxX, nodeMaxY;
+    private int[] nodeStart;
+    private int[] entries; // children of all nodes: node ids, or polygon ids for leaf nodes
+    private int leafCount; // nodes [0, leafCount) are leaves
+    private int nodeCount;
+
+    private int[] stack = new int[64]; // R-tree traversal, reused
+
+    /*
+     * @param countries - features of type POLYGON (ShapeFeature) or MULTI (MultiFeature of polygons)
+     */
+    public CountryIndex(List<Feature> countries) {
+        countryCount = countries.size();
+        countryId = new String[countryCount];
+        countryName = new String[countryCount];
+
+        List<List<Location>> rings = new ArrayList<>();
+        List<Integer> ringsPerPolygon = new ArrayList<>();
+        List<Integer> polygonCountries = new ArrayList<>();
+        for (int c = 0; c < countryCount; c++) {
+            Feature country = countries.get(c);
+            countryId[c] = country.getId();
+            countryName[c] = country.getStringProperty("name");
+            List<Feature> parts = country instanceof MultiFeature
+                    ? ((MultiFeature) country).getFeatures() : Collections.singletonList(country);
+            for (Feature part : parts) {
+                if (!(part instanceof ShapeFeature) || ((ShapeFeature) part).getLocations().size() < 3) continue;
+                ShapeFeature polygon = (ShapeFeature) part;
+                rings.add(polygon.getLocations());
+                int ringCount = 1;
+                if (polygon.getInteriorRings() != null) {
+                    for (List<Location> hole : polygon.getInteriorRings()) {
+                        if (hole.size() < 3) continue;
+                        rings.add(hole);
+                        ringCount++;
+                    }
+                }
+                ringsPerPolygon.add(ringCount);
+                polygonCountries.add(c);
+            }
+        }
+
+        polygonCount = polygonCountries.size();
+        polygonCountry = new int[polygonCount];
+        polygonRingStart = new int[polygonCount + 1];
+        for (int p = 0; p < polygonCount; p++) {
+            polygonCountry[p] = polygonCountries.get(p);
+            polygonRingStart[p + 1] = polygonRingStart[p] + ringsPerPolygon.get(p);
+        }
+
+        // rings in Mercator coordinates
+        int points = 0;
+        for (List<Location> ring : rings) points += ring.size();
+        int[] ringStart = new int[rings.size() + 1];
+        float[] x = new float[points];
+        float[] y = new float[points];
+        int k = 0;
+        for (int r = 0; r < rings.size(); r++) {
+            ringStart[r] = k;
+            for (Location loc : rings.get(r)) {
+                x[k] = (float) Mercator.lonX(loc.getLon());
+                y[k] = (float) Mercator.latY(loc.getLat());
+                k++;
+            }
+        }
+        ringStart[rings.size()] = k;
+        geometry = new Geometry(ringStart, x, y);
+
+        // bounding boxes of the exterior rings
+        minX = new float[polygonCount];
+        minY = new float[polygonCount];
+        maxX = new float[polygonCount];
+        maxY = new float[polygonCount];
+        for (int p = 0; p < polygonCount; p++) {
+            int ring = polygonRingStart[p];
+            minX[p] = minY[p] = Float.MAX_VALUE;
+            maxX[p] = maxY[p] = -Float.MAX_VALUE;
+            for (int i = ringStart[ring]; i < ringStart[ring + 1]; i++) {
+                minX[p] = Math.min(minX[p], x[i]);
+                minY[p] = Math.min(minY[p], y[i]);
+                maxX[p] = Math.max(maxX[p], x[i]);
+                maxY[p] = Math.max(maxY[p], y[i]);
+            }
+        }
+        buildTree();
+    }
+
+    /** country lookups */
+    public int getCountryCount() {
+        return countryCount;
+    }
+
+    public String getId(int country) {
+        return countryId[country];
+    }
+
+    public String getName(int country) {
+        return countryName[country];
+    }
+
+    /** polygon lookups */
+    public int getPolygonCount() {
+        return polygonCount;
+    }
+
+    public int getPolygonCountry(int polygon) {
+        return polygonCountry[polygon];
+    }
+
+    public int getRingStart(int polygon) {
+        return polygonRingStart[polygon];
+    }
+
+    public int getRingEnd(int polygon) {
+        return polygonRingStart[polygon + 1];
+    }
+
+    /*
+     * @return true if the bounding box of a polygon overlaps an area in Mercator coordinates
+     */
+    public boolean overlaps(int polygon, float x0, float y0, float x1, float y1) {
+        return minX[polygon] <= x1 && maxX[polygon] >= x0 && minY[polygon] <= y1 && maxY[polygon] >= y0;
+    }
+
+    /*
+     * Finds the country at a location.
+     *
+     * @return country index, or -1 if the location is in no country
+     */
+    public int find(Location location) {
+        float px = (float) Mercator.lonX(location.getLon());
+        float py = (float) Mercator.latY(location.getLat());
+        if (nodeCount == 0) return -1;
+
+        int top = 0;
+        stack[top++] = nodeCount - 1; // root
+        while (top > 0) {
+            int node = stack[--top];
+            if (px < nodeMinX[node] || px > nodeMaxX[node] || py < nodeMinY[node] || py > nodeMaxY[node]) continue;
+            for (int i = nodeStart[node]; i < nodeStart[node + 1]; i++) {
+                int child = entries[i];
+                if (node < leafCount) {
+                    if (px >= minX[child] && px <= maxX[child] && py >= minY[child] && py <= maxY[child]
+                            && contains(child, px, py)) {
+                        return polygonCountry[child];
+                    }
+                } else {
+                    if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = child;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Geometry simplified for a zoom level: rings keep their indices, but may be left with
+     * fewer than 3 points when they are too small to be seen (such rings are not drawn).
+     */
+    public Geometry getGeometry(int zoomLevel) {
+        if (zoomLevel > MAX_LEVEL) return geometry;
+        int level = Math.max(0, zoomLevel);
+        if (levels[level] == null) {
+            levels[level] = simplify(TOLERANCE / (256.0 * Math.pow(2, level)));
+        }
+        return levels[level];
+    }
+
+    // helper methods
+    /*
+     * Even-odd test over all rings of a polygon (holes included).
+     */
+    private boolean contains(int polygon, float px, float py) {
+        boolean inside = false;
+        for (int r = polygonRingStart[polygon]; r < polygonRingStart[polygon + 1]; r++) {
+            int start = geometry.ringStart[r];
+            int end = geometry.ringStart[r + 1];
+            for (int i = start, j = end - 1; i < end; j = i++) {
+                float xi = geometry.x[i], yi = geometry.y[i];
+                float xj = geometry.x[j], yj = geometry.y[j];
+                if ((yi > py) != (yj > py) && px < (xj - xi) * (py - yi) / (yj - yi) + xi) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /*
+     * Packs the polygon boxes bottom-up into nodes of NODE_CAPACITY children (sort-tile-recursive).
+     */
+    private void buildTree() {
+        int capacity = Math.max(1, polygonCount * 2);
+        nodeMinX = new float[capacity];
+        nodeMinY = new float[capacity];
+        nodeMaxX = new float[capacity];
+        nodeMaxY = new float[capacity];
+        nodeStart = new int[capacity + 1];
+        entries = new int[capacity];
+        if (polygonCount == 0) return;
+
+        // current level: items with boxes
+        int[] items = new int[polygonCount];
+        for (int i = 0; i < polygonCount; i++) items[i] = i;
+        float[] iMinX = minX, iMinY = minY, iMaxX = maxX, iMaxY = maxY;
+        int entryCount = 0;
+        boolean leaves = true;
+        while (true) {
+            int n = items.length;
+            int nodesAtLevel = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            int slices = (int) Math.ceil(Math.sqrt(nodesAtLevel));
+            int perSlice = slices * NODE_CAPACITY;
+
+            // sort by box center x, then every vertical slice by center y
+            sortByCenter(items, 0, n, iMinX, iMaxX);
+            for (int s = 0; s < n; s += perSlice) {
+                sortByCenter(items, s, Math.min(n, s + perSlice), iMinY, iMaxY);
+            }
+
+            int firstNode = nodeCount;
+            for (int i = 0; i < n; i += NODE_CAPACITY) {
+                int node = nodeCount++;
+                nodeStart[node] = entryCount;
+                nodeMinX[node] = nodeMinY[node] = Float.MAX_VALUE;
+                nodeMaxX[node] = nodeMaxY[node] = -Float.MAX_VALUE;
+                for (int j = i; j < Math.min(n, i + NODE_CAPACITY); j++) {
+                    int item = items[j];
+                    entries[entryCount++] = item;
+                    nodeMinX[node] = Math.min(nodeMinX[node], iMinX[item]);
+                    nodeMinY[node] = Math.min(nodeMinY[node], iMinY[item]);
+                    nodeMaxX[node] = Math.max(nodeMaxX[node], iMaxX[item]);
+                    nodeMaxY[node] = Math.max(nodeMaxY[node], iMaxY[item]);
+                }
+                nodeStart[node + 1] = entryCount;
+            }
+            if (leaves) {
+                leafCount = nodeCount;
+                leaves = false;
+            }
+            if (nodeCount - firstNode == 1) break; // root
+
+            // next level: the nodes just built
+            items = new int[nodeCount - firstNode];
+            for (int i = 0; i < items.length; i++) items[i] = firstNode + i;
+            iMinX = nodeMinX;
+            iMinY = nodeMinY;
+            iMaxX = nodeMaxX;
+            iMaxY = nodeMaxY;
+        }
+    }
+
+    private static void sortByCenter(int[] items, int from, int to, float[] min, float[] max) {
+        Integer[] boxed = new Integer[to - from];
+        for (int i = from; i < to; i++) boxed[i - from] = items[i];
+        Arrays.sort(boxed, (a, b) -> Float.compare(min[a] + max[a], min[b] + max[b]));
+        for (int i = from; i < to; i++) items[i] = boxed[i - from];
+    }
+
+    private Geometry simplify(double tolerance) {
+        int[] ringStart = new int[geometry.ringStart.length];
+        float[] x = new float[geometry.x.length];
+        float[] y = new float[geometry.y.length];
+        boolean[] keep = new boolean[geometry.x.length];
+        int[] segments = new int[64]; // Douglas-Peucker work list of (start, end) pairs
+        double tolerance2 = tolerance * tolerance;
+
+        int k = 0;
+        int ringCount = geometry.ringStart.length - 1;
+        for (int r = 0; r < ringCount; r++) {
+            ringStart[r] = k;
+            int start = geometry.ringStart[r];
+            int end = geometry.ringStart[r + 1] - 1;
+
+            // rings smaller than the tolerance are dropped
+            float rMinX = Float.MAX_VALUE, rMaxX = -Float.MAX_VALUE, rMinY = Float.MAX_VALUE, rMaxY = -Float.MAX_VALUE;
+            for (int i = start; i <= end; i++) {
+                rMinX = Math.min(rMinX, geometry.x[i]);
+                rMaxX = Math.max(rMaxX, geometry.x[i]);
+                rMinY = Math.min(rMinY, geometry.y[i]);
+                rMaxY = Math.max(rMaxY, geometry.y[i]);
+            }
+            if (rMaxX - rMinX < tolerance && rMaxY - rMinY < tolerance) continue;
+
+            // split the ring at its point farthest from the start, then simplify both halves
+            int far = start;
+            double farDistance = -1;
+            for (int i = start; i <= end; i++) {
+                double dx = geometry.x[i] - geometry.x[start];
+                double dy = geometry.y[i] - geometry.y[start];
+                if (dx * dx + dy * dy > farDistance) {
+                    farDistance = dx * dx + dy * dy;
+                    far = i;
+                }
+            }
+            keep[start] = keep[far] = keep[end] = true;
+            int top = 0;
+            segments[top++] = start;
+            segments[top++] = far;
+            segments[top++] = far;
+            segments[top++] = end;
+            while (top > 0) {
+                int b = segments[--top];
+                int a = segments[--top];
+                int best = -1;
+                double bestDistance = tolerance2;
+                for (int i = a + 1; i < b; i++) {
+                    double d = segmentDistance2(geometry.x[i], geometry.y[i],
+                            geometry.x[a], geometry.y[a], geometry.x[b], geometry.y[b]);
+                    if (d > bestDistance) {
+                        bestDistance = d;
+                        best = i;
+                    }
+                }
+                if (best >= 0) {
+                    keep[best] = true;
+                    if (top + 4 > segments.length) segments = Arrays.copyOf(segments, segments.length * 2);
+                    segments[top++] = a;
+                    segments[top++] = best;
+                    segments[top++] = best;
+                    segments[top++] = b;
+                }
+            }
+            for (int i = start; i <= end; i++) {
+                if (keep[i]) {
+                    x[k] = geometry.x[i];
+                    y[k] = geometry.y[i];
+                    k++;
+                }
+            }
+        }
+        ringStart[ringCount] = k;
+        return new Geometry(ringStart, Arrays.copyOf(x, k), Arrays.copyOf(y, k));
+    }
+
+    private static double segmentDistance2(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length2 = dx * dx + dy * dy;
+        double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / length2));
+        double ex = ax + t * dx - px;
+        double ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+    /*
+     * Ring coordinates in Mercator units: ring r is points [getStart(r), getEnd(r)).
+     */
+    public static class Geometry {
+        private final int[] ringStart;
+        private final float[] x;
+        private final float[] y;
+
+        Geometry(int[] ringStart, float[] x, float[] y) {
+            this.ringStart = ringStart;
+            this.x = x;
+            this.y = y;
+        }
+
+        /** getters */
+        public int getPointCount() {
+            return x.length;
+        }
+
+        public int getStart(int ring) {
+            return ringStart[ring];
+        }
+
+        public int getEnd(int ring) {
+            return ringStart[ring + 1];
+        }
+
+        public float getX(int point) {
+            return x[point];
+        }
+
+        public float getY(int point) {
+            return y[point];
+        }
+    }
+}
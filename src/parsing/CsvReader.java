@@ -0,0 +1,266 @@
+package parsing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Streaming, single-pass CSV tokenizer (RFC-4180 quoting).
+ *
+ * Reads from any Readable (a Reader, a CharBuffer, ...) through a fixed-size buffer, so memory use
+ * does not depend on the size of the file. Each call to next() tokenizes one record; its fields are
+ * exposed as char ranges into a row buffer that is reused for the next record:
+ *      - Quoted fields may contain commas, line breaks and doubled quotes ("");
+ *      - Surrounding quotes are removed and doubled quotes are unescaped;
+ *      - Records end with LF, CRLF or CR.
+ *
+ * Typical use:
+ *      try (CsvReader csv = new CsvReader(reader)) {
+ *          while (csv.next()) {
+ *              int id = csv.getInt(0);
+ *              ...
+ *          }
+ *      }
+ */
+public class CsvReader implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final Readable source;
+    private final CharBuffer input;
+
+    // current record: field i is row[fieldStart[i], fieldEnd[i])
+    private char[] row = new char[256];
+    private int rowLength;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private int fieldCount;
+
+    private long recordNumber;
+    private boolean eof;
+
+    // constructors
+    public CsvReader(Readable source) {
+        this(source, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvReader(Readable source, int bufferSize) {
+        this.source = source;
+        this.input = CharBuffer.allocate(bufferSize);
+        this.input.flip(); // start empty
+    }
+
+    /*
+     * Advances to the next record.
+     *
+     * @return false once the input is exhausted
+     */
+    public boolean next() throws IOException {
+        rowLength = 0;
+        fieldCount = 0;
+        if (!ensureInput()) {
+            return false;
+        }
+
+        int start = 0;
+        boolean quoted = false; // inside a quoted section
+        while (true) {
+            if (!input.hasRemaining() && !ensureInput()) {
+                endField(start);
+                break;
+            }
+            char c = input.get();
+            if (quoted) {
+                if (c == '"') {
+                    // either a doubled quote or the closing quote
+                    if (!input.hasRemaining() && !ensureInput()) {
+                        quoted = false;
+                    } else if (input.get(input.position()) == '"') {
+                        input.get();
+                        append(c);
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    append(c);
+                }
+            } else if (c == ',') {
+                endField(start);
+                start = rowLength;
+            } else if (c == '\n') {
+                endField(start);
+                break;
+            } else if (c == '\r') {
+                endField(start);
+                // swallow the LF of a CRLF pair
+                if ((input.hasRemaining() || ensureInput()) && input.get(input.position()) == '\n') {
+                    input.get();
+                }
+                break;
+            } else if (c == '"' && rowLength == start) {
+                quoted = true; // opening quote, only valid at the start of a field
+            } else {
+                append(c);
+            }
+        }
+        recordNumber++;
+        return true;
+    }
+
+    /** getters for the current record */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /*
+     * Returns the shared row buffer. It is only valid until the next call to next().
+     */
+    public char[] getBuffer() {
+        return row;
+    }
+
+    public int getStart(int field) {
+        checkField(field);
+        return fieldStart[field];
+    }
+
+    public int getEnd(int field) {
+        checkField(field);
+        return fieldEnd[field];
+    }
+
+    public int getLength(int field) {
+        return getEnd(field) - getStart(field);
+    }
+
+    public boolean isEmpty(int field) {
+        return getLength(field) == 0;
+    }
+
+    public String getString(int field) {
+        int start = getStart(field);
+        return new String(row, start, fieldEnd[field] - start);
+    }
+
+    /*
+     * Compares a field to a string without allocating.
+     */
+    public boolean fieldEquals(int field, String value) {
+        int start = getStart(field);
+        int length = fieldEnd[field] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (row[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Parses a field as a base-10 int without allocating.
+     *
+     * @throws NumberFormatException if the field is not an integer
+     */
+    public int getInt(int field) {
+        int start = getStart(field);
+        int end = fieldEnd[field];
+        if (start == end) {
+            throw new NumberFormatException("Empty field " + field + " in record " + recordNumber);
+        }
+        boolean negative = row[start] == '-';
+        if (negative || row[start] == '+') {
+            start++;
+            if (start == end) {
+                throw new NumberFormatException("Invalid integer in field " + field + " of record " + recordNumber);
+            }
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = row[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid integer in field " + field + " of record " + recordNumber);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("Integer overflow in field " + field + " of record " + recordNumber);
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Integer overflow in field " + field + " of record " + recordNumber);
+        }
+        return (int) value;
+    }
+
+    public double getDouble(int field) {
+        return Double.parseDouble(getString(field));
+    }
+
+    public float getFloat(int field) {
+        return Float.parseFloat(getString(field));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (source instanceof Closeable) {
+            ((Closeable) source).close();
+        }
+    }
+
+    // helper methods
+    private boolean ensureInput() throws IOException {
+        if (input.hasRemaining()) {
+            return true;
+        }
+        if (eof) {
+            return false;
+        }
+        input.clear();
+        int n;
+        do {
+            n = source.read(input);
+        } while (n == 0);
+        input.flip();
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void append(char c) {
+        if (rowLength == row.length) {
+            char[] grown = new char[row.length * 2];
+            System.arraycopy(row, 0, grown, 0, rowLength);
+            row = grown;
+        }
+        row[rowLength++] = c;
+    }
+
+    private void endField(int start) {
+        if (fieldCount == fieldStart.length) {
+            int[] grownStart = new int[fieldCount * 2];
+            int[] grownEnd = new int[fieldCount * 2];
+            System.arraycopy(fieldStart, 0, grownStart, 0, fieldCount);
+            System.arraycopy(fieldEnd, 0, grownEnd, 0, fieldCount);
+            fieldStart = grownStart;
+            fieldEnd = grownEnd;
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = rowLength;
+        fieldCount++;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + field + " out of range in record " + recordNumber
+                    + " (" + fieldCount + " fields)");
+        }
+    }
+}
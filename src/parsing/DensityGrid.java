@@ -0,0 +1,157 @@
+package parsing;
+
+import java.util.stream.IntStream;
+
+/**
+ * Kernel density estimate of weighted points on a grid in Web Mercator coordinates
+ * (Mercator.lonX/latY), sized for one zoom level of a map.
+ *
+ * The grid covers the bounding box of the points plus three bandwidths, with cells of a few
+ * pixels at that zoom level (larger if the box would need more than maxCells per side, in which
+ * case the kernel is widened to at least one cell). Points are binned by weight, then a Gaussian
+ * kernel is applied as two separable passes, one over rows and one over columns; the rows
+ * (columns) of a pass are blurred in parallel.
+ */
+public class DensityGrid {
+    private static final int TILE_SIZE = 256; // pixels per tile
+    private static final float MIN_CELL_PIXELS = 2;
+
+    private final int width;
+    private final int height;
+    private final float[] values;
+    private final float x0; // Mercator position of the grid's top-left corner
+    private final float y0;
+    private final float cellSize; // in Mercator units
+    private float max;
+
+    private DensityGrid(int width, int height, float x0, float y0, float cellSize) {
+        this.width = width;
+        this.height = height;
+        this.values = new float[width * height];
+        this.x0 = x0;
+        this.y0 = y0;
+        this.cellSize = cellSize;
+    }
+
+    /*
+     * Estimates the density of weighted points for a zoom level.
+     *
+     * @param x - Mercator x of the points in x[0 .. count)
+     * @param y - Mercator y of the points
+     * @param weight - weight of each point
+     * @param zoomLevel - zoom level the grid is drawn at
+     * @param bandwidth - standard deviation of the kernel, in pixels at that zoom level
+     * @param maxCells - largest number of cells per side
+     * @return DensityGrid, or null if there are no points
+     */
+    public static DensityGrid estimate(float[] x, float[] y, float[] weight, int count,
+                                       int zoomLevel, float bandwidth, int maxCells) {
+        if (count == 0) return null;
+        float pixels = TILE_SIZE * (float) Math.pow(2, zoomLevel); // per Mercator unit
+
+        // bounding box of the points, plus the reach of the kernel
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        float extent = Math.max(maxX - minX, maxY - minY) * pixels + 6 * bandwidth;
+        float cellPixels = Math.max(MIN_CELL_PIXELS, extent / maxCells);
+        float cellSize = cellPixels / pixels;
+        float sigma = Math.max(1, bandwidth / cellPixels); // in cells; at least one cell keeps large cells smooth
+        int margin = (int) Math.ceil(3 * sigma);
+        minX -= margin * cellSize;
+        minY -= margin * cellSize;
+        int width = (int) Math.ceil((maxX - minX) / cellSize) + margin;
+        int height = (int) Math.ceil((maxY - minY) / cellSize) + margin;
+        DensityGrid grid = new DensityGrid(width, height, minX, minY, cellSize);
+
+        // bin the weights
+        for (int i = 0; i < count; i++) {
+            int cx = Math.min(width - 1, (int) ((x[i] - minX) / cellSize));
+            int cy = Math.min(height - 1, (int) ((y[i] - minY) / cellSize));
+            grid.values[cy * width + cx] += weight[i];
+        }
+
+        grid.blur(sigma);
+        return grid;
+    }
+
+    /** getters */
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float get(int column, int row) {
+        return values[row * width + column];
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    /*
+     * Mercator bounds of the grid.
+     */
+    public float getX0() {
+        return x0;
+    }
+
+    public float getY0() {
+        return y0;
+    }
+
+    public float getX1() {
+        return x0 + width * cellSize;
+    }
+
+    public float getY1() {
+        return y0 + height * cellSize;
+    }
+
+    // helper methods
+    private void blur(float sigma) {
+        // normalized Gaussian kernel
+        int radius = Math.max(1, (int) Math.ceil(3 * sigma));
+        float[] kernel = new float[2 * radius + 1];
+        float sum = 0;
+        for (int k = -radius; k <= radius; k++) {
+            kernel[k + radius] = (float) Math.exp(-0.5 * k * k / (sigma * sigma));
+            sum += kernel[k + radius];
+        }
+        for (int k = 0; k < kernel.length; k++) kernel[k] /= sum;
+
+        float[] rows = new float[values.length];
+        IntStream.range(0, height).parallel().forEach(r -> convolve(values, rows, r * width, 1, width, kernel));
+        IntStream.range(0, width).parallel().forEach(c -> convolve(rows, values, c, width, height, kernel));
+
+        max = 0;
+        for (float v : values) max = Math.max(max, v);
+    }
+
+    /*
+     * Convolves one line (a row or a column) of a grid with a kernel.
+     *
+     * @param offset - index of the first value of the line
+     * @param step - distance between consecutive values of the line
+     * @param length - number of values in the line
+     */
+    private static void convolve(float[] in, float[] out, int offset, int step, int length, float[] kernel) {
+        int radius = kernel.length / 2;
+        for (int i = 0; i < length; i++) {
+            float v = 0;
+            int from = Math.max(0, i - radius);
+            int to = Math.min(length - 1, i + radius);
+            for (int j = from; j <= to; j++) {
+                v += in[offset + j * step] * kernel[j - i + radius];
+            }
+            out[offset + i * step] = v;
+        }
+    }
+}
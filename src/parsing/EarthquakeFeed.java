@@ -0,0 +1,178 @@
+package parsing;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import processing.core.PApplet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Earthquake feed (Atom, see ParseFeed.parseEarthquake) that is polled for changes.
+ *
+ * Every poll only downloads and parses the feed if it changed since the last poll:
+ *      - HTTP sources are fetched with conditional requests (If-None-Match / If-Modified-Since),
+ *      so an unchanged feed costs a 304 response;
+ *      - local files are only read again when their size or modification time changed.
+ * A changed feed is compared to the previous one by entry id and <updated> timestamp, and only the
+ * difference is returned: entries that are new, entries that were updated and ids that dropped out
+ * of the feed (expired). On the first poll, entries can also be handed out in chunks while the feed
+ * is still being read.
+ */
+public class EarthquakeFeed {
+    private static final int TIMEOUT = 15000; // ms
+
+    private final PApplet p;
+    private final String source;
+
+    // validators of the last successful fetch
+    private String etag;
+    private String lastModified;
+    private long fileLength = -1;
+    private long fileModified = -1;
+
+    private HashMap<String, String> updatedById = new HashMap<>(); // entries of the last fetch
+
+    /*
+     * @param p - PApplet being used
+     * @param source - file name or URL of the feed
+     */
+    public EarthquakeFeed(PApplet p, String source) {
+        this.p = p;
+        this.source = source;
+    }
+
+    /*
+     * Fetches the feed if it changed and diffs it against the previous fetch.
+     * The first poll returns every entry as added.
+     *
+     * @return Delta, or null if the feed did not change
+     * @throws IOException if the feed cannot be read or is not well-formed; nothing is kept then
+     */
+    public Delta poll() throws IOException {
+        return poll(0, null);
+    }
+
+    /*
+     * Like poll(); while nothing has been fetched yet, entries are also passed to onFirstEntries in
+     * chunks as they are parsed. They are still returned as added in the Delta.
+     *
+     * @param chunkSize - entries per chunk
+     * @param onFirstEntries - receives chunks of entries on the polling thread, or null
+     */
+    public synchronized Delta poll(int chunkSize, Consumer<List<PointFeature>> onFirstEntries) throws IOException {
+        if (!updatedById.isEmpty()) onFirstEntries = null;
+        HashMap<String, String> updated = new HashMap<>();
+        Delta delta;
+        // validators and entries are only kept once the feed was parsed completely,
+        // so a feed that failed to parse is fetched and parsed again on the next poll
+        File file = ParseFeed.localFile(p, source);
+        if (file != null) {
+            long length = file.length();
+            long modified = file.lastModified();
+            if (length == fileLength && modified == fileModified) {
+                return null;
+            }
+            delta = diff(ParseFeed.parseEarthquake(new FileInputStream(file), chunkSize, onFirstEntries), updated);
+            fileLength = length;
+            fileModified = modified;
+        } else {
+            URLConnection connection = connect();
+            if (connection == null) {
+                return null;
+            }
+            delta = diff(ParseFeed.parseEarthquake(connection.getInputStream(), chunkSize, onFirstEntries), updated);
+            etag = connection.getHeaderField("ETag");
+            lastModified = connection.getHeaderField("Last-Modified");
+        }
+        updatedById = updated;
+        return delta;
+    }
+
+    // helper methods
+    private URLConnection connect() throws IOException {
+        /*
+        Opens the feed URL, conditionally for HTTP sources; returns null if the feed did not change.
+         */
+        URLConnection connection = new URL(source).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        if (!(connection instanceof HttpURLConnection)) {
+            return connection;
+        }
+
+        HttpURLConnection http = (HttpURLConnection) connection;
+        if (etag != null) {
+            http.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            http.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        int status = http.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            http.disconnect();
+            return null;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            http.disconnect();
+            throw new IOException("HTTP " + status + " for " + source);
+        }
+        return http;
+    }
+
+    private Delta diff(List<PointFeature> features, HashMap<String, String> updated) {
+        /*
+        Compares the features to the entries of the last poll; fills updated with the new entries.
+         */
+        Delta delta = new Delta();
+        for (PointFeature feature : features) {
+            String id = feature.getId(); // entries without an id are keyed by their title (see ParseFeed)
+            if (id == null || updated.containsKey(id)) continue; // duplicate entry
+            String timestamp = feature.getStringProperty("updated");
+            updated.put(id, timestamp);
+
+            if (!updatedById.containsKey(id)) {
+                delta.added.add(feature);
+            } else if (!Objects.equals(updatedById.get(id), timestamp)) {
+                delta.changed.add(feature);
+            }
+        }
+        for (String id : updatedById.keySet()) {
+            if (!updated.containsKey(id)) {
+                delta.removed.add(id);
+            }
+        }
+        return delta;
+    }
+
+    /*
+     * Changes of the feed since the previous poll. Features are keyed by their id.
+     */
+    public static class Delta {
+        private final List<PointFeature> added = new ArrayList<>();
+        private final List<PointFeature> changed = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+
+        /** getters */
+        public List<PointFeature> getAdded() {
+            return added;
+        }
+
+        public List<PointFeature> getChanged() {
+            return changed;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+}
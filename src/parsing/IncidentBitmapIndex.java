@@ -0,0 +1,181 @@
+package parsing;
+
+import parsing.IncidentStats.Dimension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bitmap index over the attributes of an IncidentTable, for filters combining several of them.
+ *
+ * Every value of a dimension (year, state, county, month) has a CompressedBitmap of the rows with
+ * that value. The numbers of people killed and injured are range-encoded over a few buckets: the
+ * bitmap of bucket b holds the rows with at least COUNT_BUCKETS[b] killed (injured), so a lower
+ * bound is a single bitmap; other bounds use the bucket below them and check the remaining rows
+ * against the table. A Filter ORs the bitmaps of the values it allows for each dimension
+ * and ANDs the dimensions together in one pass (CompressedBitmap.and()), so a query like "Texas,
+ * 2019, at least 2 killed" costs about the size of its most selective condition, not a scan of
+ * the table.
+ */
+public class IncidentBitmapIndex {
+    public static final int[] COUNT_BUCKETS = {1, 2, 3, 4, 5, 10, 20}; // lower bounds of the killed / injured buckets
+
+    private final IncidentTable incidents;
+    private final int rowCount;
+    private final CompressedBitmap all;
+    private final CompressedBitmap[][] byValue; // [dimension.ordinal()][code]
+    private final CompressedBitmap[] killedAtLeast; // by bucket
+    private final CompressedBitmap[] injuredAtLeast;
+
+    private IncidentBitmapIndex(IncidentTable incidents) {
+        this.incidents = incidents;
+        rowCount = incidents.size();
+        all = new CompressedBitmap();
+        Dimension[] dimensions = Dimension.values();
+        byValue = new CompressedBitmap[dimensions.length][];
+        for (Dimension d : dimensions) {
+            byValue[d.ordinal()] = newBitmaps(d.cardinality(incidents));
+        }
+        killedAtLeast = newBitmaps(COUNT_BUCKETS.length);
+        injuredAtLeast = newBitmaps(COUNT_BUCKETS.length);
+
+        // rows are added in ascending order, which always appends to the last container
+        for (int row = 0; row < rowCount; row++) {
+            all.add(row);
+            for (Dimension d : dimensions) {
+                byValue[d.ordinal()][d.code(incidents, row)].add(row);
+            }
+            for (int b = 0; b <= bucket(incidents.getKilled(row)); b++) {
+                killedAtLeast[b].add(row);
+            }
+            for (int b = 0; b <= bucket(incidents.getInjured(row)); b++) {
+                injuredAtLeast[b].add(row);
+            }
+        }
+    }
+
+    /*
+     * @param incidents - table to index
+     * @return IncidentBitmapIndex
+     */
+    public static IncidentBitmapIndex of(IncidentTable incidents) {
+        return new IncidentBitmapIndex(incidents);
+    }
+
+    /*
+     * Rows matching every condition of a filter.
+     *
+     * @return new bitmap of rows, in ascending order
+     */
+    public CompressedBitmap select(Filter filter) {
+        List<CompressedBitmap> terms = new ArrayList<>();
+        for (Dimension d : Dimension.values()) {
+            int[] codes = filter.codes[d.ordinal()];
+            if (codes == null) continue;
+            CompressedBitmap union = null;
+            for (int code : codes) {
+                if (code < 0 || code >= byValue[d.ordinal()].length) continue;
+                union = union == null ? byValue[d.ordinal()][code] : union.or(byValue[d.ordinal()][code]);
+            }
+            terms.add(union != null ? union : new CompressedBitmap());
+        }
+        if (filter.minKilled > 0) terms.add(getBucket(killedAtLeast, filter.minKilled));
+        if (filter.minInjured > 0) terms.add(getBucket(injuredAtLeast, filter.minInjured));
+        if (terms.isEmpty()) return all.copy();
+        CompressedBitmap rows = CompressedBitmap.and(terms.toArray(new CompressedBitmap[0]));
+        if (isBucketBound(filter.minKilled) && isBucketBound(filter.minInjured)) return rows;
+
+        // a bound between two buckets: drop the rows of its bucket below the bound
+        CompressedBitmap exact = new CompressedBitmap();
+        rows.forEach(row -> {
+            if (incidents.getKilled(row) >= filter.minKilled && incidents.getInjured(row) >= filter.minInjured) {
+                exact.add(row);
+            }
+        });
+        return exact;
+    }
+
+    /** getters */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /*
+     * Bitmaps returned by the getters belong to the index and must not be changed.
+     *
+     * @param code - code of a value of the dimension, e.g. IncidentTable.findStateCode()
+     */
+    public CompressedBitmap get(Dimension dimension, int code) {
+        return byValue[dimension.ordinal()][code];
+    }
+
+    /*
+     * @param metric - IncidentStats.KILLED or INJURED
+     * @param count - lower bound: 0 or one of COUNT_BUCKETS (use select() for any other bound)
+     * @return rows with at least that many people killed (injured)
+     */
+    public CompressedBitmap getAtLeast(int metric, int count) {
+        if (!isBucketBound(count)) {
+            throw new IllegalArgumentException(count + " is not one of " + Arrays.toString(COUNT_BUCKETS));
+        }
+        return getBucket(metric == IncidentStats.KILLED ? killedAtLeast : injuredAtLeast, count);
+    }
+
+    // helper methods
+    private CompressedBitmap getBucket(CompressedBitmap[] atLeast, int count) {
+        /*
+        Rows with at least the largest bucket bound <= count killed (injured); a superset if count
+        is not a bound itself.
+         */
+        return count < COUNT_BUCKETS[0] ? all : atLeast[bucket(count)];
+    }
+
+    private static boolean isBucketBound(int count) {
+        return count <= 0 || Arrays.binarySearch(COUNT_BUCKETS, count) >= 0;
+    }
+
+    private static int bucket(int count) {
+        /*
+        Index of the largest bucket bound <= count, -1 if below all of them.
+         */
+        int b = Arrays.binarySearch(COUNT_BUCKETS, count);
+        return b >= 0 ? b : -b - 2;
+    }
+
+    private static CompressedBitmap[] newBitmaps(int count) {
+        CompressedBitmap[] bitmaps = new CompressedBitmap[count];
+        for (int i = 0; i < count; i++) {
+            bitmaps[i] = new CompressedBitmap();
+        }
+        return bitmaps;
+    }
+
+    /*
+     * Conditions on the rows of an IncidentBitmapIndex: for each dimension, the values allowed
+     * (any value if not set), and lower bounds on the people killed and injured.
+     */
+    public static class Filter {
+        private final int[][] codes = new int[Dimension.values().length][];
+        private int minKilled;
+        private int minInjured;
+
+        /*
+         * Keeps the rows whose value of a dimension is one of the given codes.
+         */
+        public Filter where(Dimension dimension, int... codes) {
+            this.codes[dimension.ordinal()] = codes.clone();
+            return this;
+        }
+
+        public Filter minKilled(int count) {
+            this.minKilled = count;
+            return this;
+        }
+
+        public Filter minInjured(int count) {
+            this.minInjured = count;
+            return this;
+        }
+    }
+}
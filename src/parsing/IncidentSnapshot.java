@@ -0,0 +1,196 @@
+package parsing;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import processing.core.PApplet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Parsed gun violence data for GunViolenceMap, cached in a compact binary snapshot.
+ *
+ * The snapshot holds the columnar IncidentTable, the state capitals and the (year, state) stats.
+ * It is written next to the incident CSV (as <csv>.snapshot) the first time the data is parsed
+ * and records size, modification time and CRC32 of both source files. On later starts a valid
+ * snapshot is memory-mapped and read with bulk primitive copies instead of reparsing CSV and
+ * GeoJSON; any change of a source file invalidates it.
+ */
+public class IncidentSnapshot {
+    private static final int MAGIC = 0x47565331; // "GVS1"
+    private static final int VERSION = 1;
+
+    private final IncidentTable incidents;
+    private final List<Feature> stateCapitals;
+    private final IncidentStats statByYearByState;
+
+    private IncidentSnapshot(IncidentTable incidents, List<Feature> stateCapitals, IncidentStats statByYearByState) {
+        this.incidents = incidents;
+        this.stateCapitals = stateCapitals;
+        this.statByYearByState = statByYearByState;
+    }
+
+    /*
+     * Loads the data from a valid snapshot, or parses the source files and writes a new snapshot.
+     *
+     * @param p - PApplet being used
+     * @param incidentFile - CSV file of incidents (see ParseFeed.readGunViolenceDataFromCSV)
+     * @param stateFile - GeoJSON file of state capitals
+     * @return IncidentSnapshot
+     */
+    public static IncidentSnapshot load(PApplet p, String incidentFile, String stateFile) {
+        File csv = new File(p.sketchPath(incidentFile));
+        File states = new File(p.sketchPath(stateFile));
+        File snapshot = new File(csv.getPath() + ".snapshot");
+
+        // snapshots only work for local files
+        if (csv.isFile() && states.isFile() && snapshot.isFile()) {
+            try {
+                IncidentSnapshot data = read(snapshot, csv, states);
+                if (data != null) {
+                    System.out.printf("Loaded %d rows from snapshot %s\n", data.incidents.size(), snapshot);
+                    return data;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ignoring unreadable snapshot " + snapshot + ": " + e);
+            }
+        }
+
+        IncidentTable incidents = ParseFeed.readGunViolenceDataFromCSV(p, incidentFile);
+        List<Feature> stateCapitals = GeoJSONReader.loadData(p, stateFile);
+        IncidentSnapshot data = new IncidentSnapshot(incidents, stateCapitals, IncidentStats.byYearAndState(incidents));
+        if (csv.isFile() && states.isFile()) {
+            try {
+                data.write(snapshot, csv, states);
+            } catch (IOException e) {
+                System.err.println("Could not write snapshot " + snapshot + ": " + e);
+            }
+        }
+        return data;
+    }
+
+    /** getters */
+    public IncidentTable getIncidents() {
+        return incidents;
+    }
+
+    public List<Feature> getStateCapitals() {
+        return stateCapitals;
+    }
+
+    public IncidentStats getStatByYearByState() {
+        return statByYearByState;
+    }
+
+    // helper methods
+    private static IncidentSnapshot read(File snapshot, File csv, File states) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot.toPath())) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            if (!readSignatureMatches(in, csv) || !readSignatureMatches(in, states)) {
+                return null; // a source file changed since the snapshot was written
+            }
+
+            IncidentTable incidents = IncidentTable.readFrom(in);
+
+            int capitalCount = in.getInt();
+            List<Feature> stateCapitals = new ArrayList<>(capitalCount);
+            for (int i = 0; i < capitalCount; i++) {
+                String state = readString(in);
+                String name = readString(in);
+                double lat = in.getDouble();
+                double lon = in.getDouble();
+                PointFeature capital = new PointFeature(new Location(lat, lon));
+                capital.putProperty("state", state);
+                capital.putProperty("name", name);
+                stateCapitals.add(capital);
+            }
+
+            IncidentStats stats = IncidentStats.readFrom(in, incidents);
+            return new IncidentSnapshot(incidents, stateCapitals, stats);
+        }
+    }
+
+    private void write(File snapshot, File csv, File states) throws IOException {
+        // write to a temporary file first so a crash never leaves a half-written snapshot
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeSignature(out, csv);
+            writeSignature(out, states);
+
+            incidents.writeTo(out);
+
+            List<PointFeature> capitals = new ArrayList<>();
+            for (Feature f : stateCapitals) {
+                if (f instanceof PointFeature) capitals.add((PointFeature) f);
+            }
+            out.writeInt(capitals.size());
+            for (PointFeature capital : capitals) {
+                writeString(out, capital.getStringProperty("state"));
+                writeString(out, capital.getStringProperty("name"));
+                out.writeDouble(capital.getLocation().getLat());
+                out.writeDouble(capital.getLocation().getLon());
+            }
+
+            statByYearByState.writeTo(out);
+        }
+        Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeSignature(DataOutputStream out, File source) throws IOException {
+        out.writeLong(source.length());
+        out.writeLong(source.lastModified());
+        out.writeLong(checksum(source));
+    }
+
+    private static boolean readSignatureMatches(ByteBuffer in, File source) throws IOException {
+        long size = in.getLong();
+        long modified = in.getLong();
+        long crc = in.getLong();
+        // compare the cheap fields first and only hash the file if they match
+        return size == source.length() && modified == source.lastModified() && crc == checksum(source);
+    }
+
+    private static long checksum(File source) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(source.toPath())) {
+            if (channel.size() > 0) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        return crc.getValue();
+    }
+
+    /** strings are stored as length-prefixed UTF-8 (length -1 for null) */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,192 @@
+package parsing;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Dense aggregation cube over an IncidentTable.
+ *
+ * Incidents are grouped by up to three dimensions (year, state, county, month) and every cell holds
+ * the same set of metrics:
+ *      - Number of shootings
+ *      - Number of people killed
+ *      - Number of people injured
+ *
+ * All cells live in one flat int[] built in a single pass over the table, so reading a cell is an
+ * index computation with no boxing or allocation. Codes are the dictionary codes of the table
+ * (month is 0-11).
+ */
+public class IncidentStats {
+    /** metrics stored in every cell */
+    public static final int SHOOTINGS = 0;
+    public static final int KILLED = 1;
+    public static final int INJURED = 2;
+    public static final int METRIC_COUNT = 3;
+
+    /** dimensions incidents can be grouped by */
+    public enum Dimension {
+        YEAR {
+            int cardinality(IncidentTable t) { return t.getYearCount(); }
+            int code(IncidentTable t, int row) { return t.getYearCode(row); }
+        },
+        STATE {
+            int cardinality(IncidentTable t) { return t.getStateCount(); }
+            int code(IncidentTable t, int row) { return t.getStateCode(row); }
+        },
+        COUNTY {
+            int cardinality(IncidentTable t) { return t.getCountyCount(); }
+            int code(IncidentTable t, int row) { return t.getCountyCode(row); }
+        },
+        MONTH {
+            int cardinality(IncidentTable t) { return 12; }
+            int code(IncidentTable t, int row) { return t.getDate(row).getMonthValue() - 1; }
+        };
+
+        abstract int cardinality(IncidentTable t);
+        abstract int code(IncidentTable t, int row);
+    }
+
+    private final IncidentTable incidents;
+    private final Dimension[] dimensions;
+    private final int[] cardinality;
+    private final int[] stride; // stride of each dimension in cells
+    private final int[] cells;
+
+    private IncidentStats(IncidentTable incidents, Dimension[] dimensions) {
+        if (dimensions.length < 1 || dimensions.length > 3) {
+            throw new IllegalArgumentException("Expected 1 to 3 dimensions, got " + dimensions.length);
+        }
+        this.incidents = incidents;
+        this.dimensions = dimensions.clone();
+        this.cardinality = new int[dimensions.length];
+        this.stride = new int[dimensions.length];
+
+        long cellCount = 1;
+        for (int d = dimensions.length - 1; d >= 0; d--) {
+            cardinality[d] = dimensions[d].cardinality(incidents);
+            stride[d] = (int) cellCount;
+            cellCount *= cardinality[d];
+            if (cellCount * METRIC_COUNT > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many cells to group by these dimensions");
+            }
+        }
+        this.cells = new int[(int) cellCount * METRIC_COUNT];
+    }
+
+    /*
+     * Aggregates every incident of a table in one pass.
+     *
+     * @param incidents - table to aggregate
+     * @param dimensions - 1 to 3 dimensions, in the order codes are passed to get()
+     * @return IncidentStats
+     */
+    public static IncidentStats groupBy(IncidentTable incidents, Dimension... dimensions) {
+        IncidentStats stats = new IncidentStats(incidents, dimensions);
+        for (int row = 0; row < incidents.size(); row++) {
+            stats.add(row);
+        }
+        return stats;
+    }
+
+    public static IncidentStats byYearAndState(IncidentTable incidents) {
+        return groupBy(incidents, Dimension.YEAR, Dimension.STATE);
+    }
+
+    /** cell lookups */
+    public int get(int code0, int metric) {
+        checkArity(1);
+        return cells[base(0, code0) + metric];
+    }
+
+    public int get(int code0, int code1, int metric) {
+        checkArity(2);
+        return cells[base(0, code0) + base(1, code1) + metric];
+    }
+
+    public int get(int code0, int code1, int code2, int metric) {
+        checkArity(3);
+        return cells[base(0, code0) + base(1, code1) + base(2, code2) + metric];
+    }
+
+    /*
+     * Sums a metric over all cells sharing the first code, e.g. the yearly total of a (year, state) cube.
+     */
+    public int total(int code0, int metric) {
+        int sum = 0;
+        int offset = base(0, code0);
+        int step = stride[dimensions.length - 1] * METRIC_COUNT;
+        int n = dimensions.length == 1 ? 1 : stride[0] / stride[dimensions.length - 1];
+        for (int i = 0; i < n; i++) {
+            sum += cells[offset + i * step + metric];
+        }
+        return sum;
+    }
+
+    /** getters */
+    public IncidentTable getIncidents() {
+        return incidents;
+    }
+
+    public int getDimensionCount() {
+        return dimensions.length;
+    }
+
+    public Dimension getDimension(int d) {
+        return dimensions[d];
+    }
+
+    public int getCardinality(int d) {
+        return cardinality[d];
+    }
+
+    /** binary snapshot (see IncidentSnapshot); the table must be the one the stats were built from */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(dimensions.length);
+        for (Dimension d : dimensions) out.writeInt(d.ordinal());
+        out.writeInt(cells.length);
+        for (int cell : cells) out.writeInt(cell);
+    }
+
+    static IncidentStats readFrom(ByteBuffer in, IncidentTable incidents) {
+        Dimension[] dimensions = new Dimension[in.getInt()];
+        for (int d = 0; d < dimensions.length; d++) {
+            dimensions[d] = Dimension.values()[in.getInt()];
+        }
+        IncidentStats stats = new IncidentStats(incidents, dimensions);
+        int n = in.getInt();
+        if (n != stats.cells.length) {
+            throw new IllegalStateException("Snapshot stats do not match incident table");
+        }
+        in.asIntBuffer().get(stats.cells);
+        in.position(in.position() + n * 4);
+        return stats;
+    }
+
+    // helper methods
+    private void add(int row) {
+        int offset = 0;
+        for (int d = 0; d < dimensions.length; d++) {
+            offset += dimensions[d].code(incidents, row) * stride[d];
+        }
+        offset *= METRIC_COUNT;
+        cells[offset + SHOOTINGS]++;
+        cells[offset + KILLED] += incidents.getKilled(row);
+        cells[offset + INJURED] += incidents.getInjured(row);
+    }
+
+    private int base(int d, int code) {
+        if (code < 0 || code >= cardinality[d]) {
+            throw new IndexOutOfBoundsException(dimensions[d] + " code " + code + " out of range ("
+                    + cardinality[d] + " values)");
+        }
+        return code * stride[d] * METRIC_COUNT;
+    }
+
+    private void checkArity(int n) {
+        if (n != dimensions.length) {
+            throw new IllegalArgumentException("Stats are grouped by " + dimensions.length + " dimensions, got "
+                    + n + " codes");
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package parsing;
+
+import de.fhpotsdam.unfolding.geo.Location;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Column store for gun violence incidents (https://www.gunviolencearchive.org/).
+ *
+ * Each incident is a row index; its attributes live in primitive arrays instead of a per-row
+ * property map:
+ *      - latitude/longitude in double[];
+ *      - number of people killed/injured in int[];
+ *      - date as epoch day in int[];
+ *      - year, state and county dictionary-encoded (short/byte/int codes);
+ *      - address as the only per-row String.
+ */
+public class IncidentTable {
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMMM d, yyyy", Locale.US);
+
+    private int size;
+    private double[] latitude;
+    private double[] longitude;
+    private int[] nKilled;
+    private int[] nInjured;
+    private int[] epochDay;
+    private short[] yearCode;
+    private byte[] stateCode;
+    private int[] countyCode;
+    private String[] address;
+
+    // dictionaries: code -> value and value -> code
+    private final List<Integer> years = new ArrayList<>();
+    private final Map<Integer, Short> yearCodes = new HashMap<>();
+    private final List<String> states = new ArrayList<>();
+    private final Map<String, Byte> stateCodes = new HashMap<>();
+    private final List<String> counties = new ArrayList<>();
+    private final Map<String, Integer> countyCodes = new HashMap<>();
+
+    // constructors
+    public IncidentTable() {
+        this(1024);
+    }
+
+    public IncidentTable(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        latitude = new double[capacity];
+        longitude = new double[capacity];
+        nKilled = new int[capacity];
+        nInjured = new int[capacity];
+        epochDay = new int[capacity];
+        yearCode = new short[capacity];
+        stateCode = new byte[capacity];
+        countyCode = new int[capacity];
+        address = new String[capacity];
+    }
+
+    /*
+     * Appends an incident.
+     *
+     * @return row index of the new incident
+     */
+    public int add(double lat, double lon, LocalDate date, String state, String county, String addr,
+                   int killed, int injured) {
+        ensureCapacity(size + 1);
+        int row = size++;
+        latitude[row] = lat;
+        longitude[row] = lon;
+        epochDay[row] = (int) date.toEpochDay();
+        yearCode[row] = encodeYear(date.getYear());
+        stateCode[row] = encodeState(state);
+        countyCode[row] = encodeCounty(county);
+        address[row] = addr;
+        nKilled[row] = killed;
+        nInjured[row] = injured;
+        return row;
+    }
+
+    /*
+     * Appends all incidents of another table, e.g. one parsed from a later chunk of the same file.
+     * Dictionary codes of the other table are translated to the codes of this table.
+     */
+    public void addAll(IncidentTable other) {
+        int n = other.size;
+        ensureCapacity(size + n);
+
+        short[] yearMap = new short[other.years.size()];
+        for (int i = 0; i < yearMap.length; i++) yearMap[i] = encodeYear(other.years.get(i));
+        byte[] stateMap = new byte[other.states.size()];
+        for (int i = 0; i < stateMap.length; i++) stateMap[i] = encodeState(other.states.get(i));
+        int[] countyMap = new int[other.counties.size()];
+        for (int i = 0; i < countyMap.length; i++) countyMap[i] = encodeCounty(other.counties.get(i));
+
+        System.arraycopy(other.latitude, 0, latitude, size, n);
+        System.arraycopy(other.longitude, 0, longitude, size, n);
+        System.arraycopy(other.nKilled, 0, nKilled, size, n);
+        System.arraycopy(other.nInjured, 0, nInjured, size, n);
+        System.arraycopy(other.epochDay, 0, epochDay, size, n);
+        System.arraycopy(other.address, 0, address, size, n);
+        for (int i = 0; i < n; i++) {
+            yearCode[size + i] = yearMap[other.yearCode[i]];
+            stateCode[size + i] = stateMap[other.stateCode[i]];
+            countyCode[size + i] = countyMap[other.countyCode[i]];
+        }
+        size += n;
+    }
+
+    /** getters for row attributes */
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int row) {
+        return latitude[checkRow(row)];
+    }
+
+    public double getLongitude(int row) {
+        return longitude[checkRow(row)];
+    }
+
+    public Location getLocation(int row) {
+        return new Location(getLatitude(row), longitude[row]);
+    }
+
+    public int getKilled(int row) {
+        return nKilled[checkRow(row)];
+    }
+
+    public int getInjured(int row) {
+        return nInjured[checkRow(row)];
+    }
+
+    public int getEpochDay(int row) {
+        return epochDay[checkRow(row)];
+    }
+
+    public LocalDate getDate(int row) {
+        return LocalDate.ofEpochDay(getEpochDay(row));
+    }
+
+    public String getDateString(int row) {
+        return getDate(row).format(DATE_FORMAT);
+    }
+
+    public short getYearCode(int row) {
+        return yearCode[checkRow(row)];
+    }
+
+    public int getYear(int row) {
+        return years.get(getYearCode(row));
+    }
+
+    public byte getStateCode(int row) {
+        return stateCode[checkRow(row)];
+    }
+
+    public String getState(int row) {
+        return states.get(getStateCode(row));
+    }
+
+    public int getCountyCode(int row) {
+        return countyCode[checkRow(row)];
+    }
+
+    public String getCounty(int row) {
+        return counties.get(getCountyCode(row));
+    }
+
+    public String getAddress(int row) {
+        return address[checkRow(row)];
+    }
+
+    /** dictionary lookups */
+    public int getYearCount() {
+        return years.size();
+    }
+
+    public int getYearForCode(int code) {
+        return years.get(code);
+    }
+
+    /*
+     * @return code of a year, or -1 if no incident happened in that year
+     */
+    public int findYearCode(int year) {
+        Short code = yearCodes.get(year);
+        return code == null ? -1 : code;
+    }
+
+    public int getStateCount() {
+        return states.size();
+    }
+
+    public String getStateForCode(int code) {
+        return states.get(code);
+    }
+
+    /*
+     * @return code of a state, or -1 if no incident happened in that state
+     */
+    public int findStateCode(String state) {
+        Byte code = stateCodes.get(state);
+        return code == null ? -1 : code;
+    }
+
+    public int getCountyCount() {
+        return counties.size();
+    }
+
+    public String getCountyForCode(int code) {
+        return counties.get(code);
+    }
+
+    /*
+     * @return code of a city/county, or -1 if no incident happened there
+     */
+    public int findCountyCode(String county) {
+        Integer code = countyCodes.get(county);
+        return code == null ? -1 : code;
+    }
+
+    /** binary snapshot (see IncidentSnapshot) */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) out.writeDouble(latitude[i]);
+        for (int i = 0; i < size; i++) out.writeDouble(longitude[i]);
+        for (int i = 0; i < size; i++) out.writeInt(nKilled[i]);
+        for (int i = 0; i < size; i++) out.writeInt(nInjured[i]);
+        for (int i = 0; i < size; i++) out.writeInt(epochDay[i]);
+        for (int i = 0; i < size; i++) out.writeInt(countyCode[i]);
+        for (int i = 0; i < size; i++) out.writeShort(yearCode[i]);
+        out.write(stateCode, 0, size);
+
+        out.writeInt(years.size());
+        for (int year : years) out.writeInt(year);
+        out.writeInt(states.size());
+        for (String state : states) IncidentSnapshot.writeString(out, state);
+        out.writeInt(counties.size());
+        for (String county : counties) IncidentSnapshot.writeString(out, county);
+        for (int i = 0; i < size; i++) IncidentSnapshot.writeString(out, address[i]);
+    }
+
+    static IncidentTable readFrom(ByteBuffer in) {
+        int n = in.getInt();
+        IncidentTable t = new IncidentTable(n);
+        t.size = n;
+        in.asDoubleBuffer().get(t.latitude, 0, n);
+        in.position(in.position() + n * 8);
+        in.asDoubleBuffer().get(t.longitude, 0, n);
+        in.position(in.position() + n * 8);
+        in.asIntBuffer().get(t.nKilled, 0, n);
+        in.position(in.position() + n * 4);
+        in.asIntBuffer().get(t.nInjured, 0, n);
+        in.position(in.position() + n * 4);
+        in.asIntBuffer().get(t.epochDay, 0, n);
+        in.position(in.position() + n * 4);
+        in.asIntBuffer().get(t.countyCode, 0, n);
+        in.position(in.position() + n * 4);
+        in.asShortBuffer().get(t.yearCode, 0, n);
+        in.position(in.position() + n * 2);
+        in.get(t.stateCode, 0, n);
+
+        int yearCount = in.getInt();
+        for (int i = 0; i < yearCount; i++) t.encodeYear(in.getInt());
+        int stateCount = in.getInt();
+        for (int i = 0; i < stateCount; i++) t.encodeState(IncidentSnapshot.readString(in));
+        int countyCount = in.getInt();
+        for (int i = 0; i < countyCount; i++) t.encodeCounty(IncidentSnapshot.readString(in));
+        for (int i = 0; i < n; i++) t.address[i] = IncidentSnapshot.readString(in);
+        return t;
+    }
+
+    // helper methods
+    private short encodeYear(int year) {
+        Short code = yearCodes.get(year);
+        if (code == null) {
+            if (years.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct years");
+            }
+            code = (short) years.size();
+            years.add(year);
+            yearCodes.put(year, code);
+        }
+        return code;
+    }
+
+    private byte encodeState(String state) {
+        Byte code = stateCodes.get(state);
+        if (code == null) {
+            if (states.size() > Byte.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct states");
+            }
+            code = (byte) states.size();
+            states.add(state);
+            stateCodes.put(state, code);
+        }
+        return code;
+    }
+
+    private int encodeCounty(String county) {
+        Integer code = countyCodes.get(county);
+        if (code == null) {
+            code = counties.size();
+            counties.add(county);
+            countyCodes.put(county, code);
+        }
+        return code;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= latitude.length) return;
+        int newCapacity = Math.max(capacity, latitude.length * 2);
+        latitude = Arrays.copyOf(latitude, newCapacity);
+        longitude = Arrays.copyOf(longitude, newCapacity);
+        nKilled = Arrays.copyOf(nKilled, newCapacity);
+        nInjured = Arrays.copyOf(nInjured, newCapacity);
+        epochDay = Arrays.copyOf(epochDay, newCapacity);
+        yearCode = Arrays.copyOf(yearCode, newCapacity);
+        stateCode = Arrays.copyOf(stateCode, newCapacity);
+        countyCode = Arrays.copyOf(countyCode, newCapacity);
+        address = Arrays.copyOf(address, newCapacity);
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of range (" + size + " rows)");
+        }
+        return row;
+    }
+}
@@ -0,0 +1,100 @@
+package parsing;
+
+/**
+ * Per-state running totals of an IncidentTable by day, for aggregates over arbitrary date ranges.
+ *
+ * For every state and metric (IncidentStats.SHOOTINGS, KILLED, INJURED) a prefix-sum array holds
+ * the totals of all days before each day of the data's span. The total over any range of days is
+ * then the difference of two entries: O(1) per state, so aggregating all states over a range
+ * costs O(states) no matter how many incidents or days it covers. Days are epoch days
+ * (LocalDate.toEpochDay()).
+ */
+public class IncidentTimeline {
+    private final int firstDay;
+    private final int dayCount;
+    private final int stateCount;
+    private final int[] prefix; // [(metric * stateCount + state) * (dayCount + 1) + d]: totals of days [firstDay, firstDay + d)
+
+    private IncidentTimeline(int firstDay, int dayCount, int stateCount) {
+        this.firstDay = firstDay;
+        this.dayCount = dayCount;
+        this.stateCount = stateCount;
+        long size = (long) IncidentStats.METRIC_COUNT * stateCount * (dayCount + 1);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many days to index by state");
+        }
+        this.prefix = new int[(int) size];
+    }
+
+    /*
+     * Builds the running totals of every state in two passes: daily totals, then prefix sums.
+     *
+     * @param incidents - table to index
+     * @return IncidentTimeline
+     */
+    public static IncidentTimeline byState(IncidentTable incidents) {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int row = 0; row < incidents.size(); row++) {
+            first = Math.min(first, incidents.getEpochDay(row));
+            last = Math.max(last, incidents.getEpochDay(row));
+        }
+        if (incidents.size() == 0) {
+            first = last = 0;
+        }
+
+        IncidentTimeline timeline = new IncidentTimeline(first, last - first + 1, incidents.getStateCount());
+        int[] prefix = timeline.prefix;
+        int stride = timeline.dayCount + 1;
+        for (int row = 0; row < incidents.size(); row++) {
+            int d = incidents.getEpochDay(row) - first + 1; // totals of a day go into the entry after it
+            int state = incidents.getStateCode(row);
+            prefix[timeline.line(IncidentStats.SHOOTINGS, state) + d] += 1;
+            prefix[timeline.line(IncidentStats.KILLED, state) + d] += incidents.getKilled(row);
+            prefix[timeline.line(IncidentStats.INJURED, state) + d] += incidents.getInjured(row);
+        }
+        for (int line = 0; line < prefix.length; line += stride) {
+            for (int d = 1; d < stride; d++) {
+                prefix[line + d] += prefix[line + d - 1];
+            }
+        }
+        return timeline;
+    }
+
+    /*
+     * Total of a metric for a state over a range of days; days outside the data's span count as empty.
+     *
+     * @param fromDay - first epoch day of the range
+     * @param toDay - last epoch day of the range (inclusive)
+     * @param metric - IncidentStats.SHOOTINGS, KILLED or INJURED
+     */
+    public int get(int state, int fromDay, int toDay, int metric) {
+        int from = Math.max(0, Math.min(dayCount, fromDay - firstDay));
+        int to = Math.max(0, Math.min(dayCount, toDay - firstDay + 1));
+        if (to <= from) return 0;
+        int line = line(metric, state);
+        return prefix[line + to] - prefix[line + from];
+    }
+
+    /** getters */
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    public int getLastDay() {
+        return firstDay + dayCount - 1;
+    }
+
+    public int getDayCount() {
+        return dayCount;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    // helper methods
+    private int line(int metric, int state) {
+        return (metric * stateCount + state) * (dayCount + 1);
+    }
+}
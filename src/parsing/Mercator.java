@@ -0,0 +1,34 @@
+package parsing;
+
+/**
+ * Web Mercator projection to [0, 1] per world: x grows east from longitude -180, y grows south
+ * from latitude 85.05 (latitudes beyond are clamped), as on the map's tiles.
+ *
+ * Indexes and layers keep their geometry in these coordinates, which do not depend on the zoom
+ * level; a map position is then one scale and translation away.
+ */
+public final class Mercator {
+    private static final double MAX_LAT = 85.0511287798;
+
+    private Mercator() {
+    }
+
+    public static double lonX(double lon) {
+        return lon / 360 + 0.5;
+    }
+
+    public static double latY(double lat) {
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LAT, Math.min(MAX_LAT, lat))));
+        double y = 0.5 - 0.25 * Math.log((1 + sin) / (1 - sin)) / Math.PI;
+        return Math.max(0, Math.min(1, y));
+    }
+
+    public static double xLon(double x) {
+        return (x - 0.5) * 360;
+    }
+
+    public static double yLat(double y) {
+        double y2 = (180 - y * 360) * Math.PI / 180;
+        return 360 * Math.atan(Math.exp(y2)) / Math.PI - 90;
+    }
+}
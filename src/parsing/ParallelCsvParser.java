@@ -0,0 +1,168 @@
+package parsing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses a local CSV file in parallel chunks.
+ *
+ * The file is memory-mapped and split into byte ranges of roughly equal size. Every range ends
+ * on a record boundary: the split points are found with one byte scan that follows the same
+ * quoting rules as CsvReader, so line breaks inside quoted fields never start a new chunk.
+ * Each chunk is decoded (UTF-8) and parsed by its own CsvReader on a ForkJoinPool worker; the
+ * per-chunk results are returned in file order, ready to be merged.
+ *
+ * Typical use:
+ *      List<List<Row>> chunks = ParallelCsvParser.parse(file, 1, csv -> {
+ *          List<Row> rows = new ArrayList<>();
+ *          while (csv.next()) {
+ *              rows.add(...);
+ *          }
+ *          return rows;
+ *      });
+ */
+public class ParallelCsvParser {
+    private static final int MIN_CHUNK_SIZE = 1 << 16; // bytes
+    private static final int CHUNKS_PER_THREAD = 4; // smooths out uneven chunks
+
+    /*
+     * Parses the records of one chunk.
+     */
+    public interface ChunkParser<T> {
+        T parse(CsvReader csv) throws IOException;
+    }
+
+    /*
+     * Parses a file on the common ForkJoinPool.
+     *
+     * @param file - local CSV file
+     * @param headerRecords - number of records to skip at the start of the file
+     * @param parser - called once per chunk, possibly concurrently
+     * @return results of the chunks in file order
+     */
+    public static <T> List<T> parse(File file, int headerRecords, ChunkParser<T> parser) throws IOException {
+        return parse(file, headerRecords, parser, ForkJoinPool.commonPool());
+    }
+
+    public static <T> List<T> parse(File file, int headerRecords, ChunkParser<T> parser, ForkJoinPool pool)
+            throws IOException {
+        MappedByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped");
+            }
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int chunkCount = Math.max(1, Math.min(pool.getParallelism() * CHUNKS_PER_THREAD,
+                bytes.limit() / MIN_CHUNK_SIZE));
+        int[] bounds = split(bytes, chunkCount);
+
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(bounds.length - 1);
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            ByteBuffer chunk = slice(bytes, bounds[i], bounds[i + 1]);
+            int skip = i == 0 ? headerRecords : 0;
+            tasks.add(pool.submit(() -> parseChunk(chunk, skip, parser)));
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (ForkJoinTask<T> task : tasks) {
+                results.add(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing " + file, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException("Could not parse " + file, e.getCause());
+        }
+        return results;
+    }
+
+    // helper methods
+    private static <T> T parseChunk(ByteBuffer chunk, int skip, ChunkParser<T> parser) throws IOException {
+        CharBuffer chars = StandardCharsets.UTF_8.decode(chunk);
+        if (skip > 0 && chars.hasRemaining() && chars.get(0) == '\uFEFF') {
+            chars.get(); // byte order mark
+        }
+        try (CsvReader csv = new CsvReader(chars)) {
+            for (int i = 0; i < skip; i++) {
+                if (!csv.next()) break;
+            }
+            return parser.parse(csv);
+        }
+    }
+
+    /*
+     * Finds chunkCount + 1 split offsets; every inner offset is the start of a record.
+     * Fewer chunks are returned if the file has fewer records than chunks.
+     */
+    private static int[] split(ByteBuffer bytes, int chunkCount) {
+        int length = bytes.limit();
+        int[] bounds = new int[chunkCount + 1];
+        int count = 1; // bounds[0] = 0
+
+        boolean quoted = false;
+        boolean fieldStart = true; // a quote only opens a quoted field at the start of a field
+        int target = length / chunkCount;
+        for (int i = 0; i < length && count < chunkCount; i++) {
+            byte b = bytes.get(i);
+            if (quoted) {
+                if (b == '"') {
+                    // either a doubled quote or the closing quote
+                    if (i + 1 < length && bytes.get(i + 1) == '"') {
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                }
+                fieldStart = false;
+            } else if (b == '"' && fieldStart) {
+                quoted = true;
+            } else if (b == ',') {
+                fieldStart = true;
+            } else if (b == '\n' || b == '\r') {
+                fieldStart = true;
+                if (b == '\r' && i + 1 < length && bytes.get(i + 1) == '\n') {
+                    i++;
+                }
+                if (i + 1 >= target) {
+                    bounds[count++] = i + 1;
+                    target = (int) ((long) length * count / chunkCount);
+                }
+            } else {
+                fieldStart = false;
+            }
+        }
+        bounds[count++] = length;
+
+        // drop empty chunks
+        int n = 1;
+        for (int i = 1; i < count; i++) {
+            if (bounds[i] > bounds[n - 1]) bounds[n++] = bounds[i];
+        }
+        int[] trimmed = new int[Math.max(n, 2)];
+        System.arraycopy(bounds, 0, trimmed, 0, n);
+        if (n == 1) trimmed[1] = length; // empty file
+        return trimmed;
+    }
+
+    private static ByteBuffer slice(ByteBuffer bytes, int start, int end) {
+        ByteBuffer chunk = bytes.duplicate();
+        chunk.position(start);
+        chunk.limit(end);
+        return chunk.slice();
+    }
+}
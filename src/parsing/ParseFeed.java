@@ -1,14 +1,23 @@
 package parsing;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.List;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import de.fhpotsdam.unfolding.data.Feature;
 import de.fhpotsdam.unfolding.data.PointFeature;
 import de.fhpotsdam.unfolding.data.ShapeFeature;
 import de.fhpotsdam.unfolding.geo.Location;
 import processing.core.PApplet;
-import processing.data.XML;
 
 public class ParseFeed {
     /*
@@ -17,147 +26,234 @@ public class ParseFeed {
      *
      * @param p - PApplet being used
      * @param fileName - file name or URL for data source
-     * @return List<PointFeature>
+     * @return IncidentTable with one row per incident
      */
-    public static List<PointFeature> readGunViolenceDataFromCSV(PApplet p, String fileName) {
-        List<PointFeature> features = new ArrayList<>();
+    public static IncidentTable readGunViolenceDataFromCSV(PApplet p, String fileName) {
+        IncidentTable incidents = new IncidentTable();
+
+        // local files are parsed in parallel chunks, URLs are streamed
+        File file = localFile(p, fileName);
+        try {
+            if (file != null) {
+                for (IncidentTable chunk : ParallelCsvParser.parse(file, 1, ParseFeed::readIncidents)) {
+                    incidents.addAll(chunk);
+                }
+            } else {
+                try (CsvReader csv = openCsv(p, fileName)) {
+                    if (csv != null) {
+                        csv.next(); // skip header
+                        incidents = readIncidents(csv);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.printf("Successfully read in %d rows from %s\n", incidents.size(), fileName);
+        return incidents;
+    }
 
-        // read in rows from csv
-        String[] rows = p.loadStrings(fileName);
-        PointFeature point;
-        for (int i=1; i < rows.length; i++) { // skip header
-            String[] columns = rows[i].split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)"); // split by comma not in quotation
-            // get location and create features
+    /*
+     * Reads the remaining rows of a gun violence CSV.
+     */
+    private static IncidentTable readIncidents(CsvReader csv) throws IOException {
+        IncidentTable incidents = new IncidentTable();
+        while (csv.next()) {
+            // skip rows without a valid location, date or counts
+            double latitude, longitude;
+            LocalDate date;
+            String state, county, address;
+            int killed, injured;
             try {
-                double latitude = Double.parseDouble(columns[7]);
-                double longitude = Double.parseDouble(columns[8]);
-                point = new PointFeature(new Location(latitude, longitude));
-                features.add(point);
-
-                // add properties
-                point.addProperty("date", columns[1]); // date of crime
-                String year = columns[1].substring(columns[1].length()-5, columns[1].length()-1);
-                point.addProperty("year", year); // year of crime
-                point.addProperty("state", columns[2]); // state of crime
-                point.addProperty("county", columns[3]); // city or county of crime
-                point.addProperty("address", columns[4]); // address of crime
-                point.addProperty("nKilled", Integer.parseInt(columns[5])); // number of people killed
-                point.addProperty("nInjured", Integer.parseInt(columns[6])); // number of people injured
-            } catch (Exception ignored) {}
+                latitude = csv.getDouble(7);
+                longitude = csv.getDouble(8);
+                date = LocalDate.parse(csv.getString(1), IncidentTable.DATE_FORMAT); // date of crime
+                state = csv.getString(2); // state of crime
+                county = csv.getString(3); // city or county of crime
+                address = csv.getString(4); // address of crime
+                killed = csv.getInt(5); // number of people killed
+                injured = csv.getInt(6); // number of people injured
+            } catch (RuntimeException ignored) {
+                continue;
+            }
+            // outside the try: a full year or state dictionary fails the load instead of dropping rows
+            incidents.add(latitude, longitude, date, state, county, address, killed, injured);
         }
-        System.out.printf("Successfully read in %d rows from %s\n", features.size(), fileName);
-        return features;
+        return incidents;
     }
 
     /*
      * This method is to parse a GeoRSS feed corresponding to earthquakes around
      * the globe.
      *
+     * The feed is read with a streaming (StAX) parser: each <entry> becomes a PointFeature
+     * when it closes, so memory use does not grow with the size of the feed.
+     *
      * @param p - PApplet being used
      * @param fileName - file name or URL for data source
      */
     public static List<PointFeature> parseEarthquake(PApplet p, String fileName) {
-        List<PointFeature> features = new ArrayList<>();
-
-        XML rss = p.loadXML(fileName);
-        // Get all items
-        XML[] itemXML = rss.getChildren("entry");
-        PointFeature point;
-
-        for (XML xml : itemXML) {
+        InputStream input = p.createInput(fileName);
+        if (input == null) {
+            System.err.println("Could not open " + fileName);
+            return new ArrayList<>();
+        }
+        try {
+            return parseEarthquake(input);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
 
-            // get location and create feature
-            Location location = getLocationFromPoint(xml);
+    /*
+     * Parses an earthquake feed from a stream (see parseEarthquake(PApplet, String)) and closes it.
+     * Features get the entry's id (or its title if it has none) as their id and its <updated>
+     * timestamp as "updated" property.
+     *
+     * @throws IOException if the stream fails or the feed is not well-formed
+     */
+    static List<PointFeature> parseEarthquake(InputStream input) throws IOException {
+        return parseEarthquake(input, 0, null);
+    }
 
-            // if successful create PointFeature and add to list
-            if (location != null) {
-                point = new PointFeature(location);
-                features.add(point);
-            } else {
-                continue;
+    /*
+     * Like parseEarthquake(InputStream), and also hands the features to onChunk in chunks while the
+     * feed is read, so they can be shown before the rest of it has arrived.
+     *
+     * @param chunkSize - features per chunk; the last chunk may be smaller
+     * @param onChunk - receives each chunk on the parsing thread, or null
+     */
+    static List<PointFeature> parseEarthquake(InputStream input, int chunkSize,
+                                              Consumer<List<PointFeature>> onChunk) throws IOException {
+        List<PointFeature> features = new ArrayList<>();
+        int handedOut = 0; // features already passed to onChunk
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader xml = null;
+        try {
+            xml = factory.createXMLStreamReader(input);
+
+            // fields of the current entry
+            boolean inEntry = false;
+            String idStr = null;
+            String updatedStr = null;
+            String titleStr = null;
+            String pointStr = null;
+            String elevStr = null;
+            String ageStr = null;
+
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName();
+                    if ("entry".equals(name)) {
+                        inEntry = true;
+                        idStr = updatedStr = titleStr = pointStr = elevStr = ageStr = null;
+                    } else if (!inEntry) {
+                        continue;
+                    } else if ("id".equals(name)) {
+                        idStr = xml.getElementText();
+                    } else if ("updated".equals(name)) {
+                        updatedStr = xml.getElementText();
+                    } else if ("title".equals(name)) {
+                        titleStr = xml.getElementText();
+                    } else if ("point".equals(name)) { // georss:point
+                        pointStr = xml.getElementText();
+                    } else if ("elev".equals(name)) { // georss:elev
+                        elevStr = xml.getElementText();
+                    } else if ("category".equals(name)
+                            && "Age".equals(xml.getAttributeValue(null, "label"))) {
+                        ageStr = xml.getAttributeValue(null, "term");
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && inEntry && "entry".equals(xml.getLocalName())) {
+                    inEntry = false;
+                    PointFeature point = createEarthquake(titleStr, pointStr, elevStr, ageStr);
+                    if (point != null) {
+                        point.setId(idStr != null ? idStr : titleStr);
+                        if (updatedStr != null) {
+                            point.putProperty("updated", updatedStr);
+                        }
+                        features.add(point);
+                        if (onChunk != null && features.size() - handedOut >= chunkSize) {
+                            onChunk.accept(new ArrayList<>(features.subList(handedOut, features.size())));
+                            handedOut = features.size();
+                        }
+                    }
+                }
             }
-
-            // Sets title if existing
-            String titleStr = getStringVal(xml, "title");
-            if (titleStr != null) {
-                point.putProperty("title", titleStr);
-                // get magnitude from title
-                point.putProperty("magnitude", Float.parseFloat(titleStr.substring(2, 5)));
+            if (onChunk != null && features.size() > handedOut) {
+                onChunk.accept(new ArrayList<>(features.subList(handedOut, features.size())));
             }
-
-            // Sets depth(elevation) if existing
-            float depthVal = getFloatVal(xml, "georss:elev");
-
-            // NOT SURE ABOUT CHECKING ERR CONDITION BECAUSE 0 COULD BE VALID?
-            // get one decimal place when converting to km
-            int interVal = (int) (depthVal / 100);
-            depthVal = (float) interVal / 10;
-            point.putProperty("depth", Math.abs((depthVal)));
-
-
-            // Sets age if existing
-            XML[] catXML = xml.getChildren("category");
-            for (XML value : catXML) {
-                String label = value.getString("label");
-                if ("Age".equals(label)) {
-                    String ageStr = value.getString("term");
-                    point.putProperty("age", ageStr);
-                }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed earthquake feed", e); // no partial results
+        } finally {
+            try {
+                if (xml != null) xml.close();
+                input.close();
+            } catch (XMLStreamException | IOException e) {
+                e.printStackTrace();
             }
-
-
         }
 
         return features;
     }
 
-
     /*
-     * Gets location from georss:point tag
-     *
-     * @param XML Node which has point as child
+     * Creates the feature of one feed entry.
      *
-     * @return Location object corresponding to point
+     * @return PointFeature, or null if the entry has no valid location
      */
-    private static Location getLocationFromPoint(XML itemXML) {
-        // set loc to null in case of failure
-        Location loc = null;
-        XML pointXML = itemXML.getChild("georss:point");
-
-        // set location if existing
-        if (pointXML != null && pointXML.getContent() != null) {
-            String pointStr = pointXML.getContent();
-            String[] latLon = pointStr.split(" ");
-            float lat = Float.parseFloat(latLon[0]);
-            float lon = Float.parseFloat(latLon[1]);
+    private static PointFeature createEarthquake(String titleStr, String pointStr, String elevStr, String ageStr) {
+        // get location and create feature
+        Location location = getLocationFromPoint(pointStr);
+        if (location == null) return null;
+        PointFeature point = new PointFeature(location);
 
-            loc = new Location(lat, lon);
+        // Sets title if existing
+        if (titleStr != null) {
+            point.putProperty("title", titleStr);
+            // get magnitude from title
+            point.putProperty("magnitude", Float.parseFloat(titleStr.substring(2, 5)));
         }
 
-        return loc;
-    }
+        // Sets depth(elevation) if existing
+        if (elevStr != null) {
+            float depthVal = Float.parseFloat(elevStr.trim());
 
-    /*
-     * Get String content from child node.
-     */
-    private static String getStringVal(XML itemXML, String tagName) {
-        // Sets title if existing
-        String str = null;
-        XML strXML = itemXML.getChild(tagName);
+            // NOT SURE ABOUT CHECKING ERR CONDITION BECAUSE 0 COULD BE VALID?
+            // get one decimal place when converting to km
+            int interVal = (int) (depthVal / 100);
+            depthVal = (float) interVal / 10;
+            point.putProperty("depth", Math.abs((depthVal)));
+        }
 
-        // check if node exists and has content
-        if (strXML != null && strXML.getContent() != null) {
-            str = strXML.getContent();
+        // Sets age if existing
+        if (ageStr != null) {
+            point.putProperty("age", ageStr);
         }
 
-        return str;
+        return point;
     }
 
     /*
-     * Get float value from child node
+     * Gets location from the content of a georss:point tag ("lat lon")
+     *
+     * @return Location object corresponding to point, or null if missing or malformed
      */
-    private static float getFloatVal(XML itemXML, String tagName) {
-        return Float.parseFloat(getStringVal(itemXML, tagName));
+    private static Location getLocationFromPoint(String pointStr) {
+        if (pointStr == null) return null;
+        String[] latLon = pointStr.trim().split("\\s+");
+        if (latLon.length < 2) return null;
+        try {
+            float lat = Float.parseFloat(latLon[0]);
+            float lon = Float.parseFloat(latLon[1]);
+            return new Location(lat, lon);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
 
@@ -174,48 +270,68 @@ public class ParseFeed {
     public static List<PointFeature> parseAirports(PApplet p, String fileName) {
         List<PointFeature> features = new ArrayList<>();
 
-        String[] rows = p.loadStrings(fileName);
-        for (String row : rows) {
+        // local files are parsed in parallel chunks, URLs are streamed
+        File file = localFile(p, fileName);
+        try {
+            if (file != null) {
+                for (List<PointFeature> chunk : ParallelCsvParser.parse(file, 0, ParseFeed::readAirports)) {
+                    features.addAll(chunk);
+                }
+            } else {
+                try (CsvReader csv = openCsv(p, fileName)) {
+                    if (csv != null) {
+                        features = readAirports(csv);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return features;
+
+    }
+
+    /*
+     * Reads the remaining rows of an airports file.
+     */
+    private static List<PointFeature> readAirports(CsvReader csv) throws IOException {
+        List<PointFeature> features = new ArrayList<>();
+        while (csv.next()) {
 
             // hot-fix for altitude when lat lon out of place
             int i = 0;
 
-            // split row by commas not in quotations
-            String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
-
             // get location and create feature
-            //System.out.println(columns[6]);
-            float lat = Float.parseFloat(columns[6]);
-            float lon = Float.parseFloat(columns[7]);
+            float lat = csv.getFloat(6);
+            float lon = csv.getFloat(7);
 
             Location loc = new Location(lat, lon);
             PointFeature point = new PointFeature(loc);
 
             // set ID to OpenFlights unique identifier
-            point.setId(columns[0]);
+            point.setId(csv.getString(0));
 
             // get other fields from csv
-            point.addProperty("name", columns[1]);
-            point.putProperty("city", columns[2]);
-            point.putProperty("country", columns[3]);
+            point.addProperty("name", csv.getString(1));
+            point.putProperty("city", csv.getString(2));
+            point.putProperty("country", csv.getString(3));
 
             // pretty sure IATA/FAA is used in routes.dat
             // get airport IATA/FAA code
-            if(!columns[4].equals("")) {
-                point.putProperty("code", columns[4]);
+            if(!csv.isEmpty(4)) {
+                point.putProperty("code", csv.getString(4));
             }
             // get airport ICAO code if no IATA
-            else if(!columns[5].equals("")) {
-                point.putProperty("code", columns[5]);
+            else if(!csv.isEmpty(5)) {
+                point.putProperty("code", csv.getString(5));
             }
 
-            point.putProperty("altitude", columns[8 + i]);
+            point.putProperty("altitude", csv.getString(8 + i));
 
             features.add(point);
         }
-
         return features;
-
     }
 
 
@@ -233,24 +349,25 @@ public class ParseFeed {
     public static List<ShapeFeature> parseRoutes(PApplet p, String fileName) {
         List<ShapeFeature> routes = new ArrayList<>();
 
-        String[] rows = p.loadStrings(fileName);
-
-        for(String row : rows) {
-            String[] columns = row.split(",");
+        try (CsvReader csv = openCsv(p, fileName)) {
+            if (csv == null) return routes;
+            while (csv.next()) {
+                ShapeFeature route = new ShapeFeature(Feature.FeatureType.LINES);
 
-            ShapeFeature route = new ShapeFeature(Feature.FeatureType.LINES);
+                // set id to be OpenFlights identifier for source airport
 
-            // set id to be OpenFlights identifier for source airport
+                // check that both airports on route have OpenFlights Identifier
+                if(!csv.fieldEquals(3, "\\N") && !csv.fieldEquals(5, "\\N")){
+                    // set "source" property to be OpenFlights identifier for source airport
+                    route.putProperty("source", csv.getString(3));
+                    // "destination property" -- OpenFlights identifier
+                    route.putProperty("destination", csv.getString(5));
 
-            // check that both airports on route have OpenFlights Identifier
-            if(!columns[3].equals("\\N") && !columns[5].equals("\\N")){
-                // set "source" property to be OpenFlights identifier for source airport
-                route.putProperty("source", columns[3]);
-                // "destination property" -- OpenFlights identifier
-                route.putProperty("destination", columns[5]);
-
-                routes.add(route);
+                    routes.add(route);
+                }
             }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 
 
@@ -279,37 +396,65 @@ public class ParseFeed {
         // HashMap key: country ID and  data: lifeExp at birth
         HashMap<String, Float> lifeExpMap = new HashMap<>();
 
-        // get lines of csv file
-        String[] rows = p.loadStrings(fileName);
-
-        // Reads country name and population density value from CSV row
-        for (String row : rows) {
-            // split row by commas not in quotations
-            String[] columns = row.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
-
-            // check if there is any life expectancy data from any year, get most recent
-            /*
-             * EXTENSION: Add code to also get the year the data is from.
-             * You may want to use a list of Floats as the  values for the HashMap
-             * and store the year as the second value. (There are many other ways to do this)
-             */
-            //
-            for(int i = columns.length - 1; i > 3; i--) {
-
-                // check if value exists for year
-                if(!columns[i].equals("..")) {
-                    lifeExpMap.put(columns[3], Float.parseFloat(columns[i]));
-
-                    // break once most recent data is found
-                    break;
+        // stream lines of csv file
+        try (CsvReader csv = openCsv(p, fileName)) {
+            if (csv == null) return lifeExpMap;
+
+            // Reads country name and population density value from CSV row
+            while (csv.next()) {
+                // check if there is any life expectancy data from any year, get most recent
+                /*
+                 * EXTENSION: Add code to also get the year the data is from.
+                 * You may want to use a list of Floats as the  values for the HashMap
+                 * and store the year as the second value. (There are many other ways to do this)
+                 */
+                //
+                for(int i = csv.getFieldCount() - 1; i > 3; i--) {
+
+                    // check if value exists for year
+                    if(!csv.fieldEquals(i, "..")) {
+                        lifeExpMap.put(csv.getString(3), csv.getFloat(i));
+
+                        // break once most recent data is found
+                        break;
+                    }
                 }
-            }
 
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 
         return lifeExpMap;
     }
 
+    /*
+     * Opens a streaming CSV reader on a file name or URL, resolved the same way as
+     * PApplet.loadStrings (sketch folder, data folder or URL).
+     *
+     * @return CsvReader, or null if the source could not be opened
+     */
+    static CsvReader openCsv(PApplet p, String fileName) {
+        BufferedReader reader = p.createReader(fileName);
+        if (reader == null) {
+            System.err.println("Could not open " + fileName);
+            return null;
+        }
+        return new CsvReader(reader);
+    }
 
-
+    /*
+     * Resolves a file name to a local file the way PApplet.createInput does (data folder,
+     * sketch folder, absolute path).
+     *
+     * @return File, or null if the source is not a local file (e.g. a URL)
+     */
+    static File localFile(PApplet p, String fileName) {
+        if (fileName.contains(":/")) return null; // URL
+        File[] candidates = {p.dataFile(fileName), p.sketchFile(fileName), new File(fileName)};
+        for (File f : candidates) {
+            if (f != null && f.isFile()) return f;
+        }
+        return null;
+    }
 }
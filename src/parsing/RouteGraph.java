@@ -0,0 +1,253 @@
+package parsing;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import processing.core.PApplet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Directed graph of airports and routes (http://openflights.org/data.html), in primitive arrays.
+ *
+ * Airports are numbered 0..n-1 in file order and found by their OpenFlights id through an
+ * open-addressing int -> int hash map. Routes are stored in CSR (compressed sparse row) form:
+ * the routes leaving airport a are route indices [routeStart[a], routeStart[a+1]), so
+ *      - the endpoints of a route are two array reads;
+ *      - the out-degree of an airport is a subtraction, the in-degree is precounted;
+ *      - iterating over the neighbours of an airport scans a contiguous slice of an int[].
+ * Routes served by several airlines appear once per airline, as in routes.dat.
+ */
+public class RouteGraph {
+    // airports
+    private final int airportCount;
+    private final int[] airportId;
+    private final float[] latitude;
+    private final float[] longitude;
+    private final String[] code;
+    private final String[] name;
+    private final int[] inDegree;
+
+    // OpenFlights id -> airport index (open addressing, linear probing; 0 marks an empty slot)
+    private final int[] idKeys;
+    private final int[] idValues;
+
+    // routes in CSR order
+    private int routeCount;
+    private final int[] routeStart; // per airport, plus one
+    private int[] routeSource;
+    private int[] routeTarget;
+
+    /*
+     * Reads airports and routes.
+     *
+     * @param p - PApplet being used
+     * @param airportsFile - file name or URL of airports.dat
+     * @param routesFile - file name or URL of routes.dat
+     * @return RouteGraph
+     */
+    public static RouteGraph load(PApplet p, String airportsFile, String routesFile) {
+        RouteGraph graph = new RouteGraph(ParseFeed.parseAirports(p, airportsFile));
+        try (CsvReader csv = ParseFeed.openCsv(p, routesFile)) {
+            if (csv != null) {
+                graph.readRoutes(csv);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return graph;
+    }
+
+    /*
+     * Creates a graph of airports (see ParseFeed.parseAirports) without routes.
+     */
+    public RouteGraph(List<PointFeature> airports) {
+        int n = airports.size();
+        airportId = new int[n];
+        latitude = new float[n];
+        longitude = new float[n];
+        code = new String[n];
+        name = new String[n];
+        inDegree = new int[n];
+        routeStart = new int[n + 1];
+        routeSource = new int[0];
+        routeTarget = new int[0];
+
+        int capacity = Integer.highestOneBit(Math.max(n, 1) * 2) * 2; // load factor <= 0.5
+        idKeys = new int[capacity];
+        idValues = new int[capacity];
+
+        int count = 0;
+        for (PointFeature airport : airports) {
+            int id;
+            try {
+                id = Integer.parseInt(airport.getId());
+            } catch (NumberFormatException e) {
+                continue; // not an OpenFlights id
+            }
+            if (id == 0 || indexOf(id) >= 0) continue; // 0 is the empty slot marker; ids are unique
+            airportId[count] = id;
+            latitude[count] = airport.getLocation().getLat();
+            longitude[count] = airport.getLocation().getLon();
+            code[count] = airport.getStringProperty("code");
+            name[count] = airport.getStringProperty("name");
+            put(id, count);
+            count++;
+        }
+        airportCount = count;
+    }
+
+    /** airport lookups */
+    public int getAirportCount() {
+        return airportCount;
+    }
+
+    /*
+     * @return index of the airport with an OpenFlights id, or -1 if there is none
+     */
+    public int indexOf(int id) {
+        int mask = idKeys.length - 1;
+        for (int slot = hash(id) & mask; idKeys[slot] != 0; slot = (slot + 1) & mask) {
+            if (idKeys[slot] == id) return idValues[slot];
+        }
+        return -1;
+    }
+
+    public int getAirportId(int airport) {
+        return airportId[checkAirport(airport)];
+    }
+
+    public float getLatitude(int airport) {
+        return latitude[checkAirport(airport)];
+    }
+
+    public float getLongitude(int airport) {
+        return longitude[checkAirport(airport)];
+    }
+
+    public Location getLocation(int airport) {
+        int a = checkAirport(airport);
+        return new Location(latitude[a], longitude[a]);
+    }
+
+    public String getCode(int airport) {
+        return code[checkAirport(airport)];
+    }
+
+    public String getName(int airport) {
+        return name[checkAirport(airport)];
+    }
+
+    public int getOutDegree(int airport) {
+        int a = checkAirport(airport);
+        return routeStart[a + 1] - routeStart[a];
+    }
+
+    public int getInDegree(int airport) {
+        return inDegree[checkAirport(airport)];
+    }
+
+    /** route lookups; the routes leaving airport a are [getRouteStart(a), getRouteEnd(a)) */
+    public int getRouteCount() {
+        return routeCount;
+    }
+
+    public int getRouteStart(int airport) {
+        return routeStart[checkAirport(airport)];
+    }
+
+    public int getRouteEnd(int airport) {
+        return routeStart[checkAirport(airport) + 1];
+    }
+
+    public int getSource(int route) {
+        return routeSource[checkRoute(route)];
+    }
+
+    public int getTarget(int route) {
+        return routeTarget[checkRoute(route)];
+    }
+
+    // helper methods
+    private void readRoutes(CsvReader csv) throws IOException {
+        // collect the edge list in one pass over the file
+        int[] source = new int[1024];
+        int[] target = new int[1024];
+        int count = 0;
+        while (csv.next()) {
+            // check that both airports on route have OpenFlights Identifier
+            if (csv.getFieldCount() < 6 || csv.fieldEquals(3, "\\N") || csv.fieldEquals(5, "\\N")) continue;
+            int from;
+            int to;
+            try {
+                from = indexOf(csv.getInt(3));
+                to = indexOf(csv.getInt(5));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (from < 0 || to < 0) continue; // airport not in airports.dat
+            if (count == source.length) {
+                source = Arrays.copyOf(source, count * 2);
+                target = Arrays.copyOf(target, count * 2);
+            }
+            source[count] = from;
+            target[count] = to;
+            count++;
+        }
+        setRoutes(source, target, count);
+    }
+
+    /*
+     * Sorts an edge list into CSR arrays (counting sort by source airport, stable).
+     */
+    private void setRoutes(int[] source, int[] target, int count) {
+        Arrays.fill(routeStart, 0);
+        Arrays.fill(inDegree, 0);
+        for (int e = 0; e < count; e++) {
+            routeStart[source[e] + 1]++;
+            inDegree[target[e]]++;
+        }
+        for (int a = 0; a < airportCount; a++) {
+            routeStart[a + 1] += routeStart[a];
+        }
+        routeSource = new int[count];
+        routeTarget = new int[count];
+        int[] next = Arrays.copyOf(routeStart, airportCount);
+        for (int e = 0; e < count; e++) {
+            int r = next[source[e]]++;
+            routeSource[r] = source[e];
+            routeTarget[r] = target[e];
+        }
+        routeCount = count;
+    }
+
+    private void put(int id, int index) {
+        int mask = idKeys.length - 1;
+        int slot = hash(id) & mask;
+        while (idKeys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        idKeys[slot] = id;
+        idValues[slot] = index;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9; // spread sequential ids
+        return h ^ (h >>> 16);
+    }
+
+    private int checkAirport(int airport) {
+        if (airport < 0 || airport >= airportCount) {
+            throw new IndexOutOfBoundsException("Airport " + airport + " out of range (" + airportCount + " airports)");
+        }
+        return airport;
+    }
+
+    private int checkRoute(int route) {
+        if (route < 0 || route >= routeCount) {
+            throw new IndexOutOfBoundsException("Route " + route + " out of range (" + routeCount + " routes)");
+        }
+        return route;
+    }
+}
@@ -0,0 +1,357 @@
+package parsing;
+
+import java.util.Arrays;
+
+/**
+ * Polylines of the routes of a RouteGraph, cached in Web Mercator coordinates ([0, 1] per world).
+ *
+ * Every pair of airports connected by at least one route (in either direction, by any airline)
+ * gets one path along its great circle, sampled every few degrees. Coordinates are independent of
+ * the zoom level, so a renderer only needs to scale and translate them; x is kept continuous along
+ * a path, so routes across the date line leave [0, 1] instead of jumping across the world.
+ *
+ * bundle() derives a copy in which routes are pulled together along shared corridors
+ * (kernel density estimation edge bundling, Hurter et al. 2012), which reduces overdraw of
+ * the dense network. Paths are stored in one flat array: path p is points [start[p], start[p+1]).
+ */
+public class RoutePaths {
+    private static final double SEGMENT_ANGLE = Math.toRadians(3); // great-circle sampling
+
+    private final int pathCount;
+    private final int[] airportA; // endpoints per path
+    private final int[] airportB;
+    private final int[] routeCount; // routes per path
+    private final int[] start; // per path, plus one
+    private final float[] x;
+    private final float[] y;
+
+    private RoutePaths(int[] airportA, int[] airportB, int[] routeCount, int[] start, float[] x, float[] y) {
+        this.pathCount = airportA.length;
+        this.airportA = airportA;
+        this.airportB = airportB;
+        this.routeCount = routeCount;
+        this.start = start;
+        this.x = x;
+        this.y = y;
+    }
+
+    /*
+     * Builds one great-circle path per connected pair of airports.
+     */
+    public static RoutePaths greatCircles(RouteGraph graph) {
+        // unique undirected pairs: sort the keys (min, max) of all routes
+        long n = graph.getAirportCount();
+        long[] keys = new long[graph.getRouteCount()];
+        for (int r = 0; r < keys.length; r++) {
+            int a = graph.getSource(r);
+            int b = graph.getTarget(r);
+            keys[r] = Math.min(a, b) * n + Math.max(a, b);
+        }
+        Arrays.sort(keys);
+
+        int pairs = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) pairs++;
+        }
+        int[] airportA = new int[pairs];
+        int[] airportB = new int[pairs];
+        int[] routeCount = new int[pairs];
+        int[] start = new int[pairs + 1];
+        int p = -1;
+        int points = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                p++;
+                airportA[p] = (int) (keys[i] / n);
+                airportB[p] = (int) (keys[i] % n);
+                start[p] = points;
+                points += segments(graph, airportA[p], airportB[p]) + 1;
+            }
+            routeCount[p]++;
+        }
+        start[pairs] = points;
+
+        float[] x = new float[points];
+        float[] y = new float[points];
+        for (p = 0; p < pairs; p++) {
+            sampleGreatCircle(graph, airportA[p], airportB[p], x, y, start[p], start[p + 1] - start[p] - 1);
+        }
+        return new RoutePaths(airportA, airportB, routeCount, start, x, y);
+    }
+
+    /** getters */
+    public int getPathCount() {
+        return pathCount;
+    }
+
+    public int getPointCount() {
+        return start[pathCount];
+    }
+
+    public int getStart(int path) {
+        return start[path];
+    }
+
+    public int getEnd(int path) {
+        return start[path + 1];
+    }
+
+    public int getAirportA(int path) {
+        return airportA[path];
+    }
+
+    public int getAirportB(int path) {
+        return airportB[path];
+    }
+
+    public int getRouteCount(int path) {
+        return routeCount[path];
+    }
+
+    /*
+     * Finds the path between two airports (in either direction).
+     *
+     * @return path index, or -1 if no route connects them
+     */
+    public int findPath(int a, int b) {
+        int lowA = Math.min(a, b);
+        int lowB = Math.max(a, b);
+        // paths are sorted by (airportA, airportB)
+        int lo = 0;
+        int hi = pathCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = airportA[mid] != lowA ? Integer.compare(airportA[mid], lowA) : Integer.compare(airportB[mid], lowB);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public float getX(int point) {
+        return x[point];
+    }
+
+    public float getY(int point) {
+        return y[point];
+    }
+
+    /*
+     * Returns a bundled copy of these paths. Paths are resampled to even spacing, then for a
+     * number of iterations every inner point moves up the gradient of the (smoothed) point
+     * density and paths are smoothed; endpoints stay at their airports.
+     *
+     * @param iterations - number of advection steps, e.g. 10
+     * @param spacing - distance between resampled points in Mercator units, e.g. 0.004
+     * @param gridSize - resolution of the density grid, e.g. 512
+     */
+    public RoutePaths bundle(int iterations, float spacing, int gridSize) {
+        RoutePaths paths = resample(spacing);
+        float[] px = paths.x;
+        float[] py = paths.y;
+
+        // density grid over the bounding box of all points
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < px.length; i++) {
+            minX = Math.min(minX, px[i]);
+            maxX = Math.max(maxX, px[i]);
+            minY = Math.min(minY, py[i]);
+            maxY = Math.max(maxY, py[i]);
+        }
+        float cell = Math.max(maxX - minX, maxY - minY) / gridSize + 1e-9f;
+        int columns = (int) ((maxX - minX) / cell) + 1;
+        int rows = (int) ((maxY - minY) / cell) + 1;
+        float[] density = new float[columns * rows];
+        float[] scratch = new float[columns * rows];
+
+        float radius = gridSize / 48f; // kernel radius in cells, shrinks every iteration
+        for (int it = 0; it < iterations; it++) {
+            // splat points and smooth with a separable box filter (twice, close to a gaussian)
+            Arrays.fill(density, 0);
+            for (int i = 0; i < px.length; i++) {
+                int cx = (int) ((px[i] - minX) / cell);
+                int cy = (int) ((py[i] - minY) / cell);
+                density[cy * columns + cx]++;
+            }
+            int r = Math.max(1, Math.round(radius));
+            for (int pass = 0; pass < 2; pass++) {
+                boxBlur(density, scratch, columns, rows, r, 1, columns); // along columns
+                boxBlur(scratch, density, rows, columns, r, columns, 1); // along rows
+            }
+
+            // move inner points up the density gradient
+            float step = radius * cell * 0.25f;
+            for (int p = 0; p < paths.pathCount; p++) {
+                for (int i = paths.start[p] + 1; i < paths.start[p + 1] - 1; i++) {
+                    int cx = Math.max(1, Math.min(columns - 2, (int) ((px[i] - minX) / cell)));
+                    int cy = Math.max(1, Math.min(rows - 2, (int) ((py[i] - minY) / cell)));
+                    float gx = density[cy * columns + cx + 1] - density[cy * columns + cx - 1];
+                    float gy = density[(cy + 1) * columns + cx] - density[(cy - 1) * columns + cx];
+                    float length = (float) Math.sqrt(gx * gx + gy * gy);
+                    if (length > 1e-6f) {
+                        px[i] += step * gx / length;
+                        py[i] += step * gy / length;
+                    }
+                    px[i] = Math.max(minX, Math.min(maxX, px[i]));
+                    py[i] = Math.max(minY, Math.min(maxY, py[i]));
+                }
+            }
+            smooth(paths);
+            radius = Math.max(1, radius * 0.75f);
+        }
+        return paths;
+    }
+
+    // helper methods
+    private static int segments(RouteGraph graph, int a, int b) {
+        double angle = centralAngle(graph.getLatitude(a), graph.getLongitude(a),
+                graph.getLatitude(b), graph.getLongitude(b));
+        return Math.max(1, Math.min(64, (int) Math.ceil(angle / SEGMENT_ANGLE)));
+    }
+
+    private static double centralAngle(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double h = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+        return 2 * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /*
+     * Writes segments + 1 points along the great circle from a to b, with continuous x.
+     */
+    private static void sampleGreatCircle(RouteGraph graph, int a, int b, float[] x, float[] y, int offset, int segments) {
+        double lat1 = Math.toRadians(graph.getLatitude(a));
+        double lon1 = Math.toRadians(graph.getLongitude(a));
+        double lat2 = Math.toRadians(graph.getLatitude(b));
+        double lon2 = Math.toRadians(graph.getLongitude(b));
+        double x1 = Math.cos(lat1) * Math.cos(lon1), y1 = Math.cos(lat1) * Math.sin(lon1), z1 = Math.sin(lat1);
+        double x2 = Math.cos(lat2) * Math.cos(lon2), y2 = Math.cos(lat2) * Math.sin(lon2), z2 = Math.sin(lat2);
+        double angle = centralAngle(graph.getLatitude(a), graph.getLongitude(a),
+                graph.getLatitude(b), graph.getLongitude(b));
+        double sin = Math.sin(angle);
+
+        double previousX = 0;
+        for (int s = 0; s <= segments; s++) {
+            double t = (double) s / segments;
+            double lat;
+            double lon;
+            if (sin < 1e-9) {
+                lat = graph.getLatitude(a) + t * (graph.getLatitude(b) - graph.getLatitude(a));
+                lon = graph.getLongitude(a) + t * (graph.getLongitude(b) - graph.getLongitude(a));
+            } else {
+                // spherical linear interpolation of the unit vectors
+                double wa = Math.sin((1 - t) * angle) / sin;
+                double wb = Math.sin(t * angle) / sin;
+                double vx = wa * x1 + wb * x2;
+                double vy = wa * y1 + wb * y2;
+                double vz = wa * z1 + wb * z2;
+                lat = Math.toDegrees(Math.atan2(vz, Math.sqrt(vx * vx + vy * vy)));
+                lon = Math.toDegrees(Math.atan2(vy, vx));
+            }
+            double px = Mercator.lonX(lon);
+            if (s > 0) {
+                // keep x continuous across the date line
+                while (px - previousX > 0.5) px -= 1;
+                while (previousX - px > 0.5) px += 1;
+            }
+            previousX = px;
+            x[offset + s] = (float) px;
+            y[offset + s] = (float) Mercator.latY(lat);
+        }
+    }
+
+    /*
+     * Copy of these paths with points spaced evenly along each path.
+     */
+    private RoutePaths resample(float spacing) {
+        int[] newStart = new int[pathCount + 1];
+        int[] counts = new int[pathCount];
+        int points = 0;
+        for (int p = 0; p < pathCount; p++) {
+            newStart[p] = points;
+            counts[p] = Math.max(3, (int) Math.ceil(length(p) / spacing) + 1); // at least one inner point
+            points += counts[p];
+        }
+        newStart[pathCount] = points;
+
+        float[] newX = new float[points];
+        float[] newY = new float[points];
+        for (int p = 0; p < pathCount; p++) {
+            double total = length(p);
+            int count = counts[p];
+            int segment = start[p];
+            double segmentStart = 0; // distance along the path at point `segment`
+            for (int k = 0; k < count; k++) {
+                double d = total * k / (count - 1);
+                while (segment < start[p + 1] - 2 && segmentStart + distance(segment) < d) {
+                    segmentStart += distance(segment);
+                    segment++;
+                }
+                double segmentLength = distance(segment);
+                double t = segmentLength == 0 ? 0 : Math.min(1, (d - segmentStart) / segmentLength);
+                newX[newStart[p] + k] = (float) (x[segment] + t * (x[segment + 1] - x[segment]));
+                newY[newStart[p] + k] = (float) (y[segment] + t * (y[segment + 1] - y[segment]));
+            }
+        }
+        return new RoutePaths(airportA, airportB, routeCount, newStart, newX, newY);
+    }
+
+    private double length(int path) {
+        double total = 0;
+        for (int i = start[path]; i < start[path + 1] - 1; i++) {
+            total += distance(i);
+        }
+        return total;
+    }
+
+    private double distance(int point) {
+        double dx = x[point + 1] - x[point];
+        double dy = y[point + 1] - y[point];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /*
+     * One pass of Laplacian smoothing over the inner points of every path.
+     */
+    private static void smooth(RoutePaths paths) {
+        for (int p = 0; p < paths.pathCount; p++) {
+            float previousX = paths.x[paths.start[p]];
+            float previousY = paths.y[paths.start[p]];
+            for (int i = paths.start[p] + 1; i < paths.start[p + 1] - 1; i++) {
+                float cx = paths.x[i];
+                float cy = paths.y[i];
+                paths.x[i] = 0.5f * cx + 0.25f * (previousX + paths.x[i + 1]);
+                paths.y[i] = 0.5f * cy + 0.25f * (previousY + paths.y[i + 1]);
+                previousX = cx;
+                previousY = cy;
+            }
+        }
+    }
+
+    /*
+     * Box filter of radius r along one axis: lines of `length` cells, `stride` apart within a line
+     * and `lineStride` apart between lines.
+     */
+    private static void boxBlur(float[] in, float[] out, int lines, int length, int r, int lineStride, int stride) {
+        for (int line = 0; line < lines; line++) {
+            int base = line * lineStride;
+            float sum = 0;
+            for (int i = 0; i < Math.min(r, length); i++) {
+                sum += in[base + i * stride];
+            }
+            for (int i = 0; i < length; i++) {
+                if (i + r < length) sum += in[base + (i + r) * stride];
+                if (i - r - 1 >= 0) sum -= in[base + (i - r - 1) * stride];
+                out[base + i * stride] = sum;
+            }
+        }
+    }
+}
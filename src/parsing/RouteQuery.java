@@ -0,0 +1,287 @@
+package parsing;
+
+import java.util.Arrays;
+
+/**
+ * Shortest-path and reachability queries over a RouteGraph.
+ *
+ * Queries run on primitive arrays that are allocated once per engine and reused, so a query does
+ * not allocate: per-airport results are only valid if stamped with the current query number,
+ * which avoids clearing the arrays between queries. Supported queries:
+ *      - fewest hops between airports (breadth-first search);
+ *      - shortest great-circle distance between airports (Dijkstra with a binary heap);
+ *      - all airports reachable within k hops.
+ * Each query accepts several source airports (multi-source mode): the result is then the best
+ * over all sources, e.g. the airports reachable within k hops of any selected airport.
+ *
+ * Results of the last query are read through getters: isReached(), getHops(), getDistance() and
+ * getPath() for the airports along the best path to a target. An engine is not thread-safe.
+ */
+public class RouteQuery {
+    private static final double EARTH_RADIUS = 6371.0; // km
+
+    private final RouteGraph graph;
+    private final float[] routeLength; // great-circle distance of each route in km
+
+    // scratch buffers, valid where stamp[a] == query
+    private final int[] stamp;
+    private int query;
+    private final int[] hops;
+    private final float[] distance;
+    private final int[] previous; // route used to reach an airport, -1 at a source
+    private final int[] settled; // Dijkstra: stamp of settled airports
+
+    // reached airports in visiting order (BFS queue)
+    private final int[] order;
+    private int orderCount;
+
+    // Dijkstra heap of (key, airport); stale entries are skipped when popped
+    private float[] heapKey;
+    private int[] heapAirport;
+    private int heapSize;
+
+    private final int[] single = new int[1];
+
+    public RouteQuery(RouteGraph graph) {
+        this.graph = graph;
+        int n = graph.getAirportCount();
+        stamp = new int[n];
+        hops = new int[n];
+        distance = new float[n];
+        previous = new int[n];
+        settled = new int[n];
+        order = new int[n];
+        heapKey = new float[Math.max(16, n)];
+        heapAirport = new int[Math.max(16, n)];
+
+        routeLength = new float[graph.getRouteCount()];
+        for (int r = 0; r < routeLength.length; r++) {
+            int a = graph.getSource(r);
+            int b = graph.getTarget(r);
+            routeLength[r] = (float) greatCircleDistance(graph.getLatitude(a), graph.getLongitude(a),
+                    graph.getLatitude(b), graph.getLongitude(b));
+        }
+    }
+
+    public RouteGraph getGraph() {
+        return graph;
+    }
+
+    /*
+     * Fewest-hop path between two airports.
+     *
+     * @return number of hops, or -1 if the target cannot be reached
+     */
+    public int fewestHops(int from, int to) {
+        single[0] = from;
+        return fewestHops(single, 1, to);
+    }
+
+    /*
+     * Fewest-hop path from the nearest of several sources.
+     *
+     * @param sources - source airports in sources[0 .. sourceCount)
+     * @param to - target airport, or -1 to search the whole graph
+     * @return number of hops, or -1 if the target cannot be reached
+     */
+    public int fewestHops(int[] sources, int sourceCount, int to) {
+        bfs(sources, sourceCount, to, Integer.MAX_VALUE);
+        return to >= 0 && isReached(to) ? hops[to] : -1;
+    }
+
+    /*
+     * Airports reachable within k hops.
+     *
+     * @return number of reached airports (including the source); see getReached()
+     */
+    public int reachableWithin(int from, int k) {
+        single[0] = from;
+        return reachableWithin(single, 1, k);
+    }
+
+    public int reachableWithin(int[] sources, int sourceCount, int k) {
+        bfs(sources, sourceCount, -1, k);
+        return orderCount;
+    }
+
+    /*
+     * Shortest great-circle distance along routes between two airports.
+     *
+     * @return distance in km, or Float.POSITIVE_INFINITY if the target cannot be reached
+     */
+    public float shortestDistance(int from, int to) {
+        single[0] = from;
+        return shortestDistance(single, 1, to);
+    }
+
+    /*
+     * Shortest distance from the nearest of several sources.
+     *
+     * @param to - target airport, or -1 to compute the distances of all airports
+     */
+    public float shortestDistance(int[] sources, int sourceCount, int to) {
+        dijkstra(sources, sourceCount, to);
+        return to >= 0 && isReached(to) ? distance[to] : Float.POSITIVE_INFINITY;
+    }
+
+    /** results of the last query */
+    public boolean isReached(int airport) {
+        return stamp[airport] == query;
+    }
+
+    public int getHops(int airport) {
+        return isReached(airport) ? hops[airport] : -1;
+    }
+
+    public float getDistance(int airport) {
+        return isReached(airport) ? distance[airport] : Float.POSITIVE_INFINITY;
+    }
+
+    /*
+     * @return number of airports reached by the last query; they are getReached(0 .. count)
+     */
+    public int getReachedCount() {
+        return orderCount;
+    }
+
+    public int getReached(int i) {
+        return order[i];
+    }
+
+    /*
+     * Writes the airports of the best path to a target, source first.
+     *
+     * @param to - target airport of the last query
+     * @param out - buffer for the airports; must hold getHops(to) + 1 entries
+     * @return number of airports written, 0 if the target was not reached
+     */
+    public int getPath(int to, int[] out) {
+        if (!isReached(to)) return 0;
+        int length = hops[to] + 1;
+        int airport = to;
+        for (int i = length - 1; i >= 0; i--) {
+            out[i] = airport;
+            if (previous[airport] >= 0) {
+                airport = graph.getSource(previous[airport]);
+            }
+        }
+        return length;
+    }
+
+    public float getRouteLength(int route) {
+        return routeLength[route];
+    }
+
+    public static double greatCircleDistance(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double h = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    // helper methods
+    private void startQuery() {
+        query++;
+        if (query == Integer.MAX_VALUE) {
+            // stamps wrapped around: clear them once
+            Arrays.fill(stamp, 0);
+            Arrays.fill(settled, 0);
+            query = 1;
+        }
+        orderCount = 0;
+    }
+
+    private void reach(int airport, int hopCount, float dist, int route) {
+        stamp[airport] = query;
+        hops[airport] = hopCount;
+        distance[airport] = dist;
+        previous[airport] = route;
+    }
+
+    private void bfs(int[] sources, int sourceCount, int to, int maxHops) {
+        startQuery();
+        for (int i = 0; i < sourceCount; i++) {
+            int s = sources[i];
+            if (isReached(s)) continue;
+            reach(s, 0, 0, -1);
+            order[orderCount++] = s;
+        }
+        for (int head = 0; head < orderCount; head++) {
+            int a = order[head];
+            if (a == to) return;
+            if (hops[a] >= maxHops) continue;
+            for (int r = graph.getRouteStart(a), end = graph.getRouteEnd(a); r < end; r++) {
+                int b = graph.getTarget(r);
+                if (isReached(b)) continue;
+                reach(b, hops[a] + 1, distance[a] + routeLength[r], r);
+                order[orderCount++] = b;
+            }
+        }
+    }
+
+    private void dijkstra(int[] sources, int sourceCount, int to) {
+        startQuery();
+        heapSize = 0;
+        for (int i = 0; i < sourceCount; i++) {
+            int s = sources[i];
+            if (isReached(s)) continue;
+            reach(s, 0, 0, -1);
+            push(0, s);
+        }
+        while (heapSize > 0) {
+            float d = heapKey[0];
+            int a = heapAirport[0];
+            pop();
+            if (settled[a] == query || d > distance[a]) continue; // stale entry
+            settled[a] = query;
+            order[orderCount++] = a;
+            if (a == to) return;
+            for (int r = graph.getRouteStart(a), end = graph.getRouteEnd(a); r < end; r++) {
+                int b = graph.getTarget(r);
+                float db = d + routeLength[r];
+                if (!isReached(b) || db < distance[b]) {
+                    reach(b, hops[a] + 1, db, r);
+                    push(db, b);
+                }
+            }
+        }
+    }
+
+    private void push(float key, int airport) {
+        if (heapSize == heapKey.length) {
+            // grows at most a few times per engine, never in steady state
+            heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+            heapAirport = Arrays.copyOf(heapAirport, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKey[parent] <= key) break;
+            heapKey[i] = heapKey[parent];
+            heapAirport[i] = heapAirport[parent];
+            i = parent;
+        }
+        heapKey[i] = key;
+        heapAirport[i] = airport;
+    }
+
+    private void pop() {
+        float key = heapKey[--heapSize];
+        int airport = heapAirport[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) child++;
+            if (heapKey[child] >= key) break;
+            heapKey[i] = heapKey[child];
+            heapAirport[i] = heapAirport[child];
+            i = child;
+        }
+        heapKey[i] = key;
+        heapAirport[i] = airport;
+    }
+}